@@ -0,0 +1,241 @@
+package com.okaphone.yajp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * JSON Canonicalization Scheme (RFC 8785), e.g. for signing or deduplicating messages.
+ * The canonical form is written as UTF-8 straight to a stream or digest, it is never built as a string.
+ *
+ * Utility class, no need to create an instance.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public class Canonical {
+   private static final byte[] HEX="0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+   private Canonical() {
+   }
+
+   private static final class Output {
+      private final OutputStream out;
+      private final byte[] buffer=new byte[8192];
+      private int length;
+
+      private Output(final OutputStream out) {
+         this.out=out;
+      }
+
+      private void room(final int needed) throws IOException {
+         if(buffer.length-length<needed) {
+            flush();
+         }
+      }
+
+      private void flush() throws IOException {
+         out.write(buffer,0,length);
+         length=0;
+      }
+
+      private void write(final char c) throws IOException {
+         room(1);
+         buffer[length++]=(byte)c;
+      }
+
+      private void write(final String ascii) throws IOException {
+         room(ascii.length());
+         for(int i=0;i<ascii.length();i++) {
+            buffer[length++]=(byte)ascii.charAt(i);
+         }
+      }
+
+      private void value(final Value<?> value) throws IOException {
+         if(value.isNull()) {
+            write("null");
+         } else if(value instanceof Value.BooleanValue) {
+            write(value.bool()?"true":"false");
+         } else if(value instanceof Value.NumberValue) {
+            room(Numbers.MAX_LENGTH);
+            length=Numbers.write(value.number(),buffer,length);
+         } else if(value instanceof Value.StringValue) {
+            string(value.chars());
+         } else if(value instanceof Value.ArrayValue) {
+            array(((Value.ArrayValue)value).value());
+         } else {
+            object(((Value.ObjectValue)value).value());
+         }
+      }
+
+      private void array(final Value<?>[] items) throws IOException {
+         write('[');
+         for(int i=0;i<items.length;i++) {
+            if(0<i) {
+               write(',');
+            }
+            value(items[i]);
+         }
+         write(']');
+      }
+
+      private void object(final Map<String,Value<?>> members) throws IOException {
+         final String[] keys=members.keySet().toArray(new String[0]);
+         Arrays.sort(keys); // String.compareTo compares UTF-16 code units, as required
+         write('{');
+         for(int i=0;i<keys.length;i++) {
+            if(0<i) {
+               write(',');
+            }
+            string(keys[i]);
+            write(':');
+            value(members.get(keys[i]));
+         }
+         write('}');
+      }
+
+      private void string(final CharSequence value) throws IOException {
+         write('"');
+         for(int i=0;i<value.length();i++) {
+            final char c=value.charAt(i);
+            room(6);
+            switch(c) {
+               case '"':
+               case '\\':
+                  buffer[length++]='\\';
+                  buffer[length++]=(byte)c;
+                  break;
+               case '\b':
+                  escape('b');
+                  break;
+               case '\f':
+                  escape('f');
+                  break;
+               case '\n':
+                  escape('n');
+                  break;
+               case '\r':
+                  escape('r');
+                  break;
+               case '\t':
+                  escape('t');
+                  break;
+               default:
+                  if(c<' ') {
+                     buffer[length++]='\\';
+                     buffer[length++]='u';
+                     buffer[length++]='0';
+                     buffer[length++]='0';
+                     buffer[length++]=HEX[c>>4];
+                     buffer[length++]=HEX[c&0xf];
+                  } else if(c<0x80) {
+                     buffer[length++]=(byte)c;
+                  } else if(c<0x800) {
+                     buffer[length++]=(byte)(0xc0|c>>6);
+                     buffer[length++]=(byte)(0x80|c&0x3f);
+                  } else if(!Character.isSurrogate(c)) {
+                     buffer[length++]=(byte)(0xe0|c>>12);
+                     buffer[length++]=(byte)(0x80|c>>6&0x3f);
+                     buffer[length++]=(byte)(0x80|c&0x3f);
+                  } else if(Character.isHighSurrogate(c)&&i+1<value.length()&&Character.isLowSurrogate(value.charAt(i+1))) {
+                     final int code=Character.toCodePoint(c,value.charAt(++i));
+                     buffer[length++]=(byte)(0xf0|code>>18);
+                     buffer[length++]=(byte)(0x80|code>>12&0x3f);
+                     buffer[length++]=(byte)(0x80|code>>6&0x3f);
+                     buffer[length++]=(byte)(0x80|code&0x3f);
+                  } else {
+                     throw new IllegalArgumentException("lone surrogate in string");
+                  }
+            }
+         }
+         write('"');
+      }
+
+      private void escape(final char c) {
+         buffer[length++]='\\';
+         buffer[length++]=(byte)c;
+      }
+   }
+
+   /**
+    * Writes the canonical form of a value.
+    *
+    * @param value the value to canonicalize
+    * @param out where to write the UTF-8 encoded canonical form to (the stream is not closed)
+    *
+    * @throws IllegalArgumentException on strings with unpaired surrogates (they can not be canonicalized)
+    */
+   public static void write(final Value<?> value,final OutputStream out) throws IOException {
+      final Output output=new Output(out);
+      output.value(value);
+      output.flush();
+   }
+
+   /**
+    * Writes the canonical form of a JSON message.
+    *
+    * @param json the message to canonicalize
+    * @param out where to write the UTF-8 encoded canonical form to (the stream is not closed)
+    *
+    * @throws Json.SyntaxException on syntax errors
+    */
+   public static void write(final String json,final OutputStream out) throws IOException {
+      write(Json.parse(json),out);
+   }
+
+   /**
+    * @return the canonical form of a value
+    */
+   public static String toString(final Value<?> value) {
+      final ByteArrayOutputStream out=new ByteArrayOutputStream();
+      try {
+         write(value,out);
+      } catch(final IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return new String(out.toByteArray(),StandardCharsets.UTF_8);
+   }
+
+   /**
+    * Digests the canonical form of a value (without building it first).
+    *
+    * @param value the value to digest
+    * @param digest the digest to use (it is reset when done)
+    * @return the digest of the canonical form
+    */
+   public static byte[] digest(final Value<?> value,final MessageDigest digest) {
+      try {
+         write(value,new OutputStream() {
+            @Override
+            public void write(final int b) {
+               digest.update((byte)b);
+            }
+
+            @Override
+            public void write(final byte[] b,final int off,final int len) {
+               digest.update(b,off,len);
+            }
+         });
+      } catch(final IOException e) {
+         throw new UncheckedIOException(e); // Does not happen
+      }
+      return digest.digest();
+   }
+
+   /**
+    * Digests the canonical form of a JSON message (without building it first).
+    *
+    * @param json the message to digest
+    * @param digest the digest to use (it is reset when done)
+    * @return the digest of the canonical form
+    *
+    * @throws Json.SyntaxException on syntax errors
+    */
+   public static byte[] digest(final String json,final MessageDigest digest) {
+      return digest(Json.parse(json),digest);
+   }
+}
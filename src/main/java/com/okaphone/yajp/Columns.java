@@ -0,0 +1,369 @@
+package com.okaphone.yajp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Reads a JSON array of (similar) objects straight into columns of primitives, without building {@link Value} trees.
+ * Only the declared members are extracted, anything else is skipped. Missing members and nulls are marked in a bitmap per column.
+ * String columns are dictionary encoded.
+ *
+ * The rows are delivered in batches. A batch (and the arrays in it) is reused for the next one, so copy what must be kept.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public final class Columns {
+   private static final int NUMBER=0;
+   private static final int INTEGER=1;
+   private static final int BOOL=2;
+   private static final int STRING=3;
+   private final List<Column> columns=new ArrayList<>();
+   private int rows=4096;
+
+   private static final class Column {
+      private final String name;
+      private final int type;
+      private final BitSet nulls=new BitSet();
+      private final Map<String,Integer> codes=new HashMap<>();
+      private final List<String> dictionary=new ArrayList<>();
+      private double[] numbers;
+      private long[] integers;
+      private boolean[] bools;
+      private int[] strings;
+
+      private Column(final String name,final int type) {
+         this.name=name;
+         this.type=type;
+      }
+
+      private void allocate(final int rows) {
+         numbers=type==NUMBER?new double[rows]:null;
+         integers=type==INTEGER?new long[rows]:null;
+         bools=type==BOOL?new boolean[rows]:null;
+         strings=type==STRING?new int[rows]:null;
+      }
+
+      private void clear() {
+         nulls.clear();
+         codes.clear();
+         dictionary.clear();
+      }
+
+      private void read(final Lexer in,final int row,final StringBuilder scratch) throws IOException {
+         final int next=in.peek();
+         if(next=='n') {
+            in.skip();
+            return;
+         }
+         if((type==NUMBER||type==INTEGER)&&next!='-'&&(next<'0'||'9'<next)) {
+            throw mismatch(row,"a number");
+         }
+         scratch.setLength(0);
+         switch(type) {
+            case NUMBER:
+               in.number(scratch);
+               numbers[row]=Numbers.parse(scratch,0,scratch.length());
+               break;
+            case INTEGER:
+               in.number(scratch);
+               integers[row]=integer(row,scratch);
+               break;
+            case BOOL:
+               if(next!='t'&&next!='f') {
+                  throw mismatch(row,"a boolean");
+               }
+               in.skip();
+               bools[row]=next=='t';
+               break;
+            default:
+               if(next!='"') {
+                  throw mismatch(row,"a string");
+               }
+               in.text(scratch);
+               final String value=scratch.toString();
+               Integer code=codes.get(value);
+               if(code==null) {
+                  code=dictionary.size();
+                  codes.put(value,code);
+                  dictionary.add(value);
+               }
+               strings[row]=code;
+         }
+         nulls.clear(row);
+      }
+
+      private RuntimeException mismatch(final int row,final String expected) {
+         return new IllegalArgumentException("expected "+expected+" for "+name+" in row "+row);
+      }
+
+      /**
+       * Integers of up to 18 digits are taken as-is, anything else has to be an exact integer within the range of a long.
+       */
+      private long integer(final int row,final StringBuilder number) {
+         final int start=number.charAt(0)=='-'?1:0;
+         long value=0;
+         for(int i=start;i<number.length();i++) {
+            final char c=number.charAt(i);
+            if(c<'0'||'9'<c) { // A fraction or exponent
+               final double exact=Numbers.parse(number,0,number.length());
+               if(exact!=Math.rint(exact)||exact<Long.MIN_VALUE||exact>=0x1p63) {
+                  throw mismatch(row,"an integer");
+               }
+               return (long)exact;
+            }
+            value=value*10+c-'0';
+         }
+         if(number.length()-start<=18) {
+            return start==0?value:-value;
+         }
+         try {
+            return Long.parseLong(number.toString());
+         } catch(final NumberFormatException e) {
+            throw mismatch(row,"an integer");
+         }
+      }
+   }
+
+   /**
+    * A batch of rows.
+    * Only the first {@link #size()} entries of the columns are valid.
+    */
+   public static final class Batch {
+      private final List<Column> columns;
+      private int size;
+
+      private Batch(final List<Column> columns) {
+         this.columns=columns;
+      }
+
+      public int size() {
+         return size;
+      }
+
+      private Column column(final String name,final int type) {
+         for(final Column column:columns) {
+            if(column.name.equals(name)) {
+               if(column.type!=type) {
+                  throw new UnsupportedOperationException("wrong type: "+name);
+               }
+               return column;
+            }
+         }
+         throw new IllegalArgumentException("no such column: "+name);
+      }
+
+      public double[] numbers(final String name) {
+         return column(name,NUMBER).numbers;
+      }
+
+      public long[] integers(final String name) {
+         return column(name,INTEGER).integers;
+      }
+
+      public boolean[] bools(final String name) {
+         return column(name,BOOL).bools;
+      }
+
+      /**
+       * @return the dictionary codes of a string column (see {@link #dictionary(String)})
+       */
+      public int[] codes(final String name) {
+         return column(name,STRING).strings;
+      }
+
+      /**
+       * @return the distinct values of a string column (in this batch), indexed by code
+       */
+      public List<String> dictionary(final String name) {
+         return Collections.unmodifiableList(column(name,STRING).dictionary);
+      }
+
+      /**
+       * @return the rows where the member is null or missing
+       */
+      public BitSet nulls(final String name) {
+         for(final Column column:columns) {
+            if(column.name.equals(name)) {
+               return column.nulls;
+            }
+         }
+         throw new IllegalArgumentException("no such column: "+name);
+      }
+   }
+
+   /**
+    * Adds a column of doubles.
+    *
+    * @return these columns
+    *
+    * @throws IllegalArgumentException when there already is a column with that name
+    */
+   public Columns number(final String name) {
+      return add(name,NUMBER);
+   }
+
+   /**
+    * Adds a column of longs.
+    * Values with a fraction or beyond the range of a long do not fit it (see {@link #read(Reader,Consumer)}).
+    *
+    * @return these columns
+    *
+    * @throws IllegalArgumentException when there already is a column with that name
+    */
+   public Columns integer(final String name) {
+      return add(name,INTEGER);
+   }
+
+   /**
+    * Adds a column of booleans.
+    *
+    * @return these columns
+    *
+    * @throws IllegalArgumentException when there already is a column with that name
+    */
+   public Columns bool(final String name) {
+      return add(name,BOOL);
+   }
+
+   /**
+    * Adds a (dictionary encoded) column of strings.
+    *
+    * @return these columns
+    *
+    * @throws IllegalArgumentException when there already is a column with that name
+    */
+   public Columns string(final String name) {
+      return add(name,STRING);
+   }
+
+   /**
+    * Sets the (maximum) number of rows per batch (4096 by default).
+    *
+    * @return these columns
+    *
+    * @throws IllegalArgumentException when rows is less than 1
+    */
+   public Columns batch(final int rows) {
+      if(rows<1) {
+         throw new IllegalArgumentException("invalid batch size: "+rows);
+      }
+      this.rows=rows;
+      return this;
+   }
+
+   private Columns add(final String name,final int type) {
+      for(final Column column:columns) {
+         if(column.name.equals(name)) {
+            throw new IllegalArgumentException("duplicate column: "+name);
+         }
+      }
+      columns.add(new Column(name,type));
+      return this;
+   }
+
+   /**
+    * Reads a JSON array of objects.
+    *
+    * @throws Json.SyntaxException on syntax errors
+    * @throws IllegalArgumentException when a member has the wrong type for its column
+    */
+   public void read(final String json,final Consumer<Batch> batches) {
+      try {
+         read(new StringReader(json),batches);
+      } catch(final IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Reads a UTF-8 encoded JSON array of objects.
+    *
+    * @throws Json.SyntaxException on syntax errors
+    * @throws IllegalArgumentException when a member has the wrong type for its column
+    */
+   public void read(final InputStream json,final Consumer<Batch> batches) throws IOException {
+      read(new InputStreamReader(json,StandardCharsets.UTF_8),batches);
+   }
+
+   /**
+    * Reads a JSON array of objects.
+    *
+    * @throws Json.SyntaxException on syntax errors
+    * @throws IllegalArgumentException when a member has the wrong type for its column
+    */
+   public void read(final Reader json,final Consumer<Batch> batches) throws IOException {
+      final List<Column> columns=new ArrayList<>();
+      for(final Column column:this.columns) {
+         final Column copy=new Column(column.name,column.type); // So that these columns can be read concurrently
+         copy.allocate(rows);
+         columns.add(copy);
+      }
+      final Batch batch=new Batch(columns);
+      final Lexer in=new Lexer(json);
+      final StringBuilder key=new StringBuilder();
+      final StringBuilder scratch=new StringBuilder();
+      in.expect('[');
+      if(in.peek()!=']') {
+         do {
+            if(batch.size==rows) {
+               batches.accept(batch);
+               batch.size=0;
+               columns.forEach(Column::clear);
+            }
+            row(in,columns,batch.size++,key,scratch);
+         } while(in.next(']'));
+      }
+      in.expect(']');
+      if(in.peek()>=0) {
+         throw in.syntax("expected end of input");
+      }
+      if(0<batch.size) {
+         batches.accept(batch);
+      }
+   }
+
+   private static void row(final Lexer in,final List<Column> columns,final int row,final StringBuilder key,final StringBuilder scratch) throws IOException {
+      for(final Column column:columns) {
+         column.nulls.set(row);
+      }
+      in.expect('{');
+      if(in.peek()!='}') {
+         int hint=0; // Members are usually in the same order in every row
+         do {
+            key.setLength(0);
+            in.text(key);
+            in.expect(':');
+            final int found=find(columns,key,hint);
+            if(found<0) {
+               in.skip();
+            } else {
+               columns.get(found).read(in,row,scratch);
+               hint=found+1;
+            }
+         } while(in.next('}'));
+      }
+      in.expect('}');
+   }
+
+   private static int find(final List<Column> columns,final StringBuilder key,final int hint) {
+      for(int i=0;i<columns.size();i++) {
+         final int j=(hint+i)%columns.size();
+         if(columns.get(j).name.contentEquals(key)) {
+            return j;
+         }
+      }
+      return -1;
+   }
+}
@@ -8,7 +8,6 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
@@ -63,36 +62,63 @@ public class Extras {
                });
    }
 
-   private static String quote(final String value) {
+   static String quote(final String value) {
       return value.isEmpty()?"\"\"":'"'+encode(value)+'"';
    }
 
-   private static String value(final Object value) {
+   static StringBuilder quote(final StringBuilder json,final String value) {
+      return json.append('"').append(encode(value)).append('"');
+   }
+
+   static StringBuilder value(final StringBuilder json,final Object value) {
       if(value==null) {
-         return "null";
+         return json.append("null");
       }
       if(value instanceof ObjectBuilder) {
-         return object((ObjectBuilder)value);
+         return object(json,(ObjectBuilder)value);
       }
       if(value instanceof ArrayBuilder) {
-         return array((ArrayBuilder)value);
+         return array(json,(ArrayBuilder)value);
       }
       if(PRIMITIVE.contains(value.getClass())) {
-         return value.toString();
+         if(value instanceof Boolean) {
+            return json.append(((Boolean)value).booleanValue());
+         }
+         if(value instanceof Double) {
+            final double number=(Double)value;
+            return Double.isFinite(number)?Numbers.append(json,number):json.append("null");
+         }
+         if(value instanceof Float) {
+            final float number=(Float)value;
+            return Float.isFinite(number)?Numbers.append(json,number):json.append("null");
+         }
+         return json.append(((Number)value).longValue()); // As fast as it gets for a StringBuilder, Numbers.write is for bytes
       }
-      return quote(value.toString());
+      return quote(json,value.toString());
    }
 
-   private static String member(final Map.Entry<String,Object> member) {
-      return quote(member.getKey())+':'+value(member.getValue());
-   }
-
-   private static String object(final ObjectBuilder members) {
-      return members.isEmpty()?"{}":members.entrySet().stream().map(Extras::member).collect(Collectors.joining(",","{","}"));
+   private static StringBuilder object(final StringBuilder json,final ObjectBuilder members) {
+      json.append('{');
+      boolean first=true;
+      for(final Map.Entry<String,Object> member:members.entrySet()) {
+         if(!first) {
+            json.append(',');
+         }
+         first=false;
+         value(quote(json,member.getKey()).append(':'),member.getValue());
+      }
+      return json.append('}');
    }
 
-   private static String array(final ArrayBuilder items) {
-      return items.isEmpty()?"[]":items.stream().map(Extras::value).collect(Collectors.joining(",","[","]"));
+   private static StringBuilder array(final StringBuilder json,final ArrayBuilder items) {
+      json.append('[');
+      for(int i=0;i<items.size();i++) {
+         if(0<i) {
+            json.append(',');
+         }
+         value(json,items.get(i));
+      }
+      return json.append(']');
    }
 
    /**
@@ -116,7 +142,7 @@ public class Extras {
        * @return a valid ECMA-404 JSON string.
        */
       public String build() {
-         return object(this);
+         return object(new StringBuilder(),this).toString();
       }
    }
 
@@ -151,7 +177,7 @@ public class Extras {
        * @return a valid ECMA-404 JSON string.
        */
       public String build() {
-         return array(this);
+         return array(new StringBuilder(),this).toString();
       }
    }
 }
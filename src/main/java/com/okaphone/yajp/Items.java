@@ -0,0 +1,153 @@
+package com.okaphone.yajp;
+
+import java.util.Arrays;
+
+/**
+ * The items of an array value as a persistent vector: a trie with 32 children per node and the items in the leaves.
+ * All nodes are full except those at the end, so the depth follows from the size and a vector is just its root and size.
+ * Replacing, appending and removing the last item copy only the nodes on the path to it (a few nodes of at most 32 entries),
+ * everything else is shared. Removing any other item shifts all items after it, so that rebuilds the vector.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+final class Items {
+   private Items() {
+   }
+
+   /**
+    * @return the shift of the index bits for the root (0 when the root is the only leaf)
+    */
+   private static int shift(final int size) {
+      return size<=32?0:(31-Integer.numberOfLeadingZeros(size-1))/5*5;
+   }
+
+   /**
+    * Builds a vector in one go.
+    *
+    * @return the root
+    */
+   static Object[] of(final Value<?>[] values,final int from,final int to) {
+      final int size=to-from;
+      if(size<=32) {
+         return Arrays.copyOfRange(values,from,to,Object[].class);
+      }
+      Object[] level=new Object[size+31>>>5];
+      for(int i=0;i<level.length;i++) {
+         level[i]=Arrays.copyOfRange(values,from+(i<<5),Math.min(from+(i<<5)+32,to),Object[].class);
+      }
+      while(32<level.length) {
+         final Object[] parents=new Object[level.length+31>>>5];
+         for(int i=0;i<parents.length;i++) {
+            parents[i]=Arrays.copyOfRange(level,i<<5,Math.min((i<<5)+32,level.length));
+         }
+         level=parents;
+      }
+      return level;
+   }
+
+   static Value<?> get(final Object[] root,final int size,final int i) {
+      if(i<0||size<=i) {
+         throw new ArrayIndexOutOfBoundsException(i);
+      }
+      Object[] node=root;
+      for(int level=shift(size);0<level;level-=5) {
+         node=(Object[])node[i>>>level&31];
+      }
+      return (Value<?>)node[i&31];
+   }
+
+   /**
+    * @return the items in a new array
+    */
+   static Value<?>[] array(final Object[] root,final int size) {
+      final Value<?>[] array=new Value<?>[size];
+      copy(root,shift(size),array,0);
+      return array;
+   }
+
+   private static int copy(final Object[] node,final int level,final Value<?>[] array,final int offset) {
+      if(level==0) {
+         System.arraycopy(node,0,array,offset,node.length);
+         return offset+node.length;
+      }
+      int next=offset;
+      for(final Object child:node) {
+         next=copy((Object[])child,level-5,array,next);
+      }
+      return next;
+   }
+
+   /**
+    * Replaces an item (or appends one when the index equals the size).
+    *
+    * @return the new root
+    */
+   static Object[] with(final Object[] root,final int size,final int i,final Value<?> value) {
+      if(i<0||size<i) {
+         throw new ArrayIndexOutOfBoundsException(i);
+      }
+      final int shift=shift(size);
+      if(i<size) {
+         return replace(root,shift,i,value);
+      }
+      if(size==1<<shift+5) { // The root is full
+         return new Object[]{root,path(shift,value)};
+      }
+      return append(root,shift,i,value);
+   }
+
+   private static Object[] replace(final Object[] node,final int level,final int i,final Value<?> value) {
+      final Object[] copy=node.clone();
+      final int index=i>>>level&31;
+      copy[index]=level==0?value:replace((Object[])node[index],level-5,i,value);
+      return copy;
+   }
+
+   private static Object[] append(final Object[] node,final int level,final int i,final Value<?> value) {
+      final int index=i>>>level&31;
+      final Object[] copy=Arrays.copyOf(node,Math.max(node.length,index+1));
+      if(level==0) {
+         copy[index]=value;
+      } else {
+         copy[index]=index<node.length?append((Object[])node[index],level-5,i,value):path(level-5,value);
+      }
+      return copy;
+   }
+
+   private static Object[] path(final int level,final Value<?> value) { // A new node with a single item below it
+      return new Object[]{level==0?value:path(level-5,value)};
+   }
+
+   /**
+    * Removes an item.
+    *
+    * @return the new root
+    */
+   static Object[] without(final Object[] root,final int size,final int i) {
+      if(i<0||size<=i) {
+         throw new ArrayIndexOutOfBoundsException(i);
+      }
+      if(i<size-1) {
+         final Value<?>[] array=array(root,size);
+         System.arraycopy(array,i+1,array,i,size-1-i);
+         return of(array,0,size-1);
+      }
+      final int shift=shift(size);
+      final Object[] removed=last(root,shift,i);
+      return shift(size-1)<shift?(Object[])removed[0]:removed; // Down a level when the root has only one child left
+   }
+
+   private static Object[] last(final Object[] node,final int level,final int i) { // Removes the last item
+      final int index=i>>>level&31;
+      if(level==0) {
+         return Arrays.copyOf(node,index);
+      }
+      final Object[] child=last((Object[])node[index],level-5,i);
+      if(child.length==0) {
+         return Arrays.copyOf(node,index);
+      }
+      final Object[] copy=node.clone();
+      copy[index]=child;
+      return copy;
+   }
+}
@@ -1,13 +1,7 @@
 package com.okaphone.yajp;
 
-import static com.okaphone.yajp.Utils.replace;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.function.Function;
-import java.util.regex.Pattern;
 
 /**
  * The parser.
@@ -18,173 +12,100 @@ import java.util.regex.Pattern;
  * © Copyright J.R. Marks 2023
  */
 public class Json {
-   private static final Pattern NUMERIC=Pattern.compile("-?\\d.*");
-   private static final Pattern NUMBER=Pattern.compile("([-\\d.eE+]+).*");
-   private static final Pattern ENCODED=Pattern.compile("\\\\([\\\\\"/bfnrt]|(u[\\da-fA-F]{4}))");
-   private static final Pattern TAIL=Pattern.compile("[\\x20\\r\\n\\t]*([,}\\]].*)?");
-   private static final String WHITESPACE=" \r\n\t";
+   private static final int CONTEXT=20; // Characters of context (on either side) in syntax errors
 
    private Json() {
    }
 
-   private static final class Parsed {
-      private final Value<?> value;
-      private final String tail;
+   /**
+    * Thrown on syntax errors.
+    * Reports the position (offset, line and column) of the error and a short snippet of the input around it, never the whole input.
+    */
+   public static final class SyntaxException
+         extends IllegalArgumentException {
+      private final long offset;
+      private final long line;
+      private final long column;
+      private final String expected;
+      private final String context;
 
-      private Parsed(final Value<?> value,final String tail) {
-         this.value=value;
-         this.tail=tail;
+      SyntaxException(final String expected,final long offset,final long line,final long column,final String context) {
+         super("syntax error at line "+line+", column "+column+" (offset "+offset+"): "+expected+" near \""+context+'"');
+         this.offset=offset;
+         this.line=line;
+         this.column=column;
+         this.expected=expected;
+         this.context=context;
       }
 
-      private Value<?> value() {
-         return value;
+      /**
+       * @return the (zero based) character offset of the error
+       */
+      public long offset() {
+         return offset;
       }
 
-      private String tail() {
-         return tail;
+      /**
+       * @return the (one based) line of the error
+       */
+      public long line() {
+         return line;
       }
-   }
 
-   private static String numeric(final String json) {
-      return NUMBER.matcher(json).replaceFirst("$1");
-   }
-
-   private static String quoted(final String json) {
-      int i=0;
-      do {
-         i=json.indexOf('"',i+1);
-      } while(0<i&&json.charAt(i-1)=='\\');
-      return i<0?null:json.substring(0,i+1);
-   }
-
-   private static String unquote(final String quoted) {
-      final String value=quoted.substring(1,quoted.length()-1);
-      return value.indexOf('\\')<0
-             ?value
-             :replace(value,
-                      ENCODED,
-                      (matcher)->{
-                         final String found=matcher.group(1);
-                         switch(found) {
-                            case "\\":
-                            case "\"":
-                            case "/":
-                               return found;
-                            case "b":
-                               return "\b";
-                            case "f":
-                               return "\f";
-                            case "n":
-                               return "\n";
-                            case "r":
-                               return "\r";
-                            case "t":
-                               return "\t";
-                            default: // u
-                               return new String(Character.toChars(Integer.parseInt(found.substring(1),16)));
-                         }
-                      }
-            );
-   }
-
-   private static Parsed key(final String json) {
-      final String src=json.trim();
-      if(src.charAt(0)=='"') {
-         final String key=quoted(src);
-         if(key!=null) {
-            return key(Value.of(unquote(key)),src.substring(key.length()));
-         }
+      /**
+       * @return the (one based) column of the error
+       */
+      public long column() {
+         return column;
       }
-      throw syntax(src);
-   }
 
-   private static Parsed value(final String json) {
-      final String src=json.trim();
-      if(src.isEmpty()) {
-         return null;
-      }
-      if(src.startsWith("null")) {
-         return value(Value.of(),src.substring(4));
-      }
-      if(src.startsWith("true")) {
-         return value(Value.of(true),src.substring(4));
-      }
-      if(src.startsWith("false")) {
-         return value(Value.of(false),src.substring(5));
-      }
-      if(NUMERIC.matcher(src).matches()) {
-         final String value=numeric(src);
-         return value(Value.of(Double.parseDouble(value)),src.substring(value.length()));
-      }
-      if(src.charAt(0)=='"') {
-         final String value=quoted(src);
-         if(value!=null) {
-            return value(Value.of(unquote(value)),src.substring(value.length()));
-         }
-      }
-      if(src.charAt(0)=='[') {
-         final List<Value<?>> items=new ArrayList<>();
-         String tail=src.substring(1);
-         while(!tail.isEmpty()) {
-            if(lookahead(tail,']')) {
-               return value(Value.of(items.toArray(new Value<?>[0])),skip(tail,']'));
-            }
-            final Parsed item=value(tail);
-            items.add(item.value());
-            tail=next(item.tail());
-         }
-      }
-      if(src.charAt(0)=='{') {
-         final Map<String,Value<?>> members=new HashMap<>();
-         String tail=src.substring(1);
-         while(!tail.isEmpty()) {
-            if(lookahead(tail,'}')) {
-               return value(Value.of(members),skip(tail,'}'));
-            }
-            final Parsed key=key(tail);
-            final Parsed value=value(skip(key.tail(),':'));
-            members.put(key.value().string(),value.value());
-            tail=next(value.tail());
-         }
+      /**
+       * @return a description of what was expected at the position of the error
+       */
+      public String expected() {
+         return expected;
       }
-      throw syntax(src);
-   }
 
-   private static String next(final String tail) {
-      if(lookahead(tail,',')) {
-         return skip(tail,',');
+      /**
+       * @return a short snippet of the input around the position of the error
+       */
+      public String context() {
+         return context;
       }
-      return tail;
    }
 
-   private static Parsed key(final Value<?> value,final String tail) {
-      if(lookahead(tail,':')) {
-         return new Parsed(value,tail);
+   static String unquote(final String quoted) {
+      final JsonParser parser=JsonParser.acquire();
+      try {
+         return parser.unquote(quoted);
+      } finally {
+         JsonParser.release(parser);
       }
-      throw syntax(tail);
    }
 
-   private static Parsed value(final Value<?> value,final String tail) {
-      if(TAIL.matcher(tail).matches()) {
-         return new Parsed(value,tail);
+   static String unescape(final String json,final int start,final int end) {
+      final JsonParser parser=JsonParser.acquire();
+      try {
+         return parser.unescape(json,start,end);
+      } finally {
+         JsonParser.release(parser);
       }
-      throw syntax(tail);
    }
 
-   private static boolean lookahead(final String tail,final char next) {
-      int i=0;
-      while(i<tail.length()&&0<=WHITESPACE.indexOf(tail.charAt(i))) {
-         i++;
+   static SyntaxException syntax(final CharSequence json,final int offset,final String expected) {
+      long line=1;
+      int start=0;
+      for(int i=0;i<offset;i++) {
+         if(json.charAt(i)=='\n') {
+            line++;
+            start=i+1;
+         }
       }
-      return i<tail.length()&&tail.charAt(i)==next;
-   }
-
-   private static String skip(final String tail,final char next) {
-      return tail.substring(tail.indexOf(next)+1);
-   }
-
-   private static RuntimeException syntax(final String json) {
-      return new IllegalArgumentException("syntax error: "+json);
+      return new SyntaxException(expected,
+                                 offset,
+                                 line,
+                                 offset-start+1,
+                                 json.subSequence(Math.max(0,offset-CONTEXT),Math.min(json.length(),offset+CONTEXT)).toString());
    }
 
    /**
@@ -193,14 +114,30 @@ public class Json {
     * @param message a JSON string (normally an anonymous object or array, but a primitive value also works)
     * @return a {@link Value} object that represents the parsed string
     *
-    * @throws IllegalArgumentException on syntax errors
+    * @throws SyntaxException on syntax errors
     */
    public static Value<?> parse(final String message) {
-      final Parsed parsed=value(message);
-      if(!parsed.tail().isEmpty()) {
-         throw syntax(parsed.tail());
+      return parse(message,Schema.ANY);
+   }
+
+   /**
+    * Parses a valid ECMA-404 JSON string and checks it against a schema while parsing.
+    * Parsing stops at the first value that does not conform to the schema.
+    *
+    * @param message a JSON string (normally an anonymous object or array, but a primitive value also works)
+    * @param schema the compiled schema that the message should conform to
+    * @return a {@link Value} object that represents the parsed string
+    *
+    * @throws SyntaxException on syntax errors
+    * @throws Schema.Violation when the message does not conform to the schema
+    */
+   public static Value<?> parse(final String message,final Schema schema) {
+      final JsonParser parser=JsonParser.acquire();
+      try {
+         return parser.parse(message,schema);
+      } finally {
+         JsonParser.release(parser);
       }
-      return parsed.value();
    }
 
    public static <TYPE> TYPE value0(final Value<?> value,final Function<Value<?>,TYPE> map) {
@@ -0,0 +1,451 @@
+package com.okaphone.yajp;
+
+import com.okaphone.yajp.Json.SyntaxException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A reusable parser.
+ * It keeps its working storage between parses, so once warmed up the only allocations are those of the parsed values.
+ * An instance is not thread safe, use one per thread (or simply use {@link Json#parse(String)}, which uses a small pool of them).
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public final class JsonParser {
+   private static final AtomicReferenceArray<JsonParser> POOL=new AtomicReferenceArray<>(Integer.highestOneBit(Runtime.getRuntime().availableProcessors()*4));
+   private static final int RETAIN=1<<16; // Larger working storage is not kept between parses
+   private static final int WINDOW=1<<14; // The number of characters of input in the image
+   private String json;
+   private int i;
+   private final Scanner scanner=Scanner.create(WINDOW);
+   private int base; // The window of the input that the scanner has
+   private int limit;
+   private Value<?>[] stack=new Value<?>[16]; // The items and members of all arrays and objects that are being parsed
+   private String[] keys=new String[16]; // The keys of the members (in the same positions)
+   private int top;
+   private StringBuilder scratch=new StringBuilder();
+   private int slices=Integer.MAX_VALUE;
+   private boolean escaped; // Whether the last string had escapes
+
+   public JsonParser() {
+   }
+
+   /**
+    * Leaves long string values as slices of the input, they are only decoded (and copied) when read as string.
+    * Note that such values keep the complete input in memory for as long as they are referenced.
+    * See {@link Value#chars()}, {@link Value#reader()} and {@link Value#base64(java.io.OutputStream)} for reading them without a copy.
+    *
+    * @param length the minimal length (in characters of input) of the values to leave as slice
+    * @return this parser
+    */
+   public JsonParser slices(final int length) {
+      slices=length;
+      return this;
+   }
+
+   static JsonParser acquire() {
+      final JsonParser parser=POOL.getAndSet(slot(),null);
+      return parser==null?new JsonParser():parser;
+   }
+
+   static void release(final JsonParser parser) {
+      POOL.compareAndSet(slot(),null,parser);
+   }
+
+   private static int slot() {
+      return (int)Thread.currentThread().getId()&POOL.length()-1;
+   }
+
+   /**
+    * Parses a valid ECMA-404 JSON string.
+    *
+    * @param message a JSON string (normally an anonymous object or array, but a primitive value also works)
+    * @return a {@link Value} object that represents the parsed string
+    *
+    * @throws SyntaxException on syntax errors
+    */
+   public Value<?> parse(final String message) {
+      return parse(message,Schema.ANY);
+   }
+
+   /**
+    * Parses a valid ECMA-404 JSON string and checks it against a schema while parsing.
+    *
+    * @param message a JSON string (normally an anonymous object or array, but a primitive value also works)
+    * @param schema the compiled schema that the message should conform to
+    * @return a {@link Value} object that represents the parsed string
+    *
+    * @throws SyntaxException on syntax errors
+    * @throws Schema.Violation when the message does not conform to the schema
+    */
+   public Value<?> parse(final String message,final Schema schema) {
+      start(message);
+      try {
+         final Value<?> value=value(schema);
+         if(skip()<json.length()) {
+            throw syntax("expected end of input");
+         }
+         return value;
+      } finally {
+         stop();
+      }
+   }
+
+   String unquote(final String quoted) {
+      start(quoted);
+      try {
+         return string();
+      } finally {
+         stop();
+      }
+   }
+
+   String unescape(final String json,final int start,final int end) {
+      start(json);
+      try {
+         return unescape(start,end,scratch);
+      } finally {
+         stop();
+      }
+   }
+
+   private void start(final String json) {
+      this.json=json;
+      i=0;
+      base=0;
+      limit=0;
+   }
+
+   private void stop() {
+      json=null;
+      Arrays.fill(stack,0,top,null); // Only after errors
+      Arrays.fill(keys,0,top,null);
+      top=0;
+      if(RETAIN<stack.length) {
+         stack=new Value<?>[16];
+         keys=new String[16];
+      }
+      if(RETAIN<scratch.capacity()) {
+         scratch=new StringBuilder();
+      }
+   }
+
+   private int skip() {
+      final int end=Math.min(i+8,json.length());
+      while(i<end) { // Most runs are short (none at all in minified input)
+         final char c=json.charAt(i);
+         if(' '<c||c!=' '&&c!='\r'&&c!='\n'&&c!='\t') {
+            return i;
+         }
+         i++;
+      }
+      if(i<json.length()) {
+         i=scan(false,i);
+      }
+      return i;
+   }
+
+   private boolean lookahead(final char next) {
+      return skip()<json.length()&&json.charAt(i)==next;
+   }
+
+   private void expect(final char next) {
+      if(!lookahead(next)) {
+         throw syntax("expected '"+next+"'");
+      }
+      i++;
+   }
+
+   private boolean next(final char close) {
+      if(lookahead(',')) {
+         i++;
+         return true;
+      }
+      if(lookahead(close)) {
+         return false;
+      }
+      throw syntax("expected ',' or '"+close+"'");
+   }
+
+   private <VALUE extends Value<?>> VALUE literal(final String literal,final VALUE value) {
+      if(!json.startsWith(literal,i)) {
+         throw syntax("expected "+literal);
+      }
+      i+=literal.length();
+      return value;
+   }
+
+   private Value<?> value(final Schema schema) {
+      if(skip()<json.length()) {
+         final char c=json.charAt(i);
+         switch(c) {
+            case 'n':
+               return schema.check(literal("null",Value.of()));
+            case 't':
+               return schema.check(literal("true",Value.of(true)));
+            case 'f':
+               return schema.check(literal("false",Value.of(false)));
+            case '"':
+               return schema.check(string(slices));
+            case '[':
+               return array(schema);
+            case '{':
+               return object(schema);
+            default:
+               if(c=='-'||'0'<=c&&c<='9') {
+                  return schema.check(Value.of(number()));
+               }
+         }
+      }
+      throw syntax("expected a value");
+   }
+
+   private Value<?> array(final Schema schema) {
+      schema.open("array");
+      expect('[');
+      final int bottom=top;
+      if(!lookahead(']')) {
+         do {
+            final int index=top-bottom; // Nested arrays and objects that fail leave their items on the stack
+            final Value<?> item;
+            try {
+               item=value(schema.items());
+            } catch(final Schema.Violation e) {
+               throw e.at(Integer.toString(index));
+            }
+            push(null,item);
+            schema.count(top-bottom);
+         } while(next(']'));
+      }
+      expect(']');
+      final Value.ArrayValue items=Value.wrap(stack,bottom,top);
+      pop(bottom);
+      return schema.check(items);
+   }
+
+   private Value<?> object(final Schema schema) {
+      schema.open("object");
+      expect('{');
+      final int bottom=top;
+      if(!lookahead('}')) {
+         do {
+            if(!lookahead('"')) {
+               throw syntax("expected a key");
+            }
+            final String key=string();
+            expect(':');
+            final Value<?> member;
+            try {
+               member=value(schema.property(key));
+            } catch(final Schema.Violation e) {
+               throw e.at(key);
+            }
+            push(key,member);
+         } while(next('}'));
+      }
+      expect('}');
+      final Value.ObjectValue members=Value.wrap(keys,stack,bottom,top);
+      pop(bottom);
+      return schema.check(members);
+   }
+
+   private void push(final String key,final Value<?> value) {
+      if(top==stack.length) {
+         stack=Arrays.copyOf(stack,top<<1);
+         keys=Arrays.copyOf(keys,top<<1);
+      }
+      keys[top]=key;
+      stack[top++]=value;
+   }
+
+   private void pop(final int bottom) {
+      Arrays.fill(stack,bottom,top,null);
+      Arrays.fill(keys,bottom,top,null);
+      top=bottom;
+   }
+
+   private String string() {
+      final int start=i+1;
+      final int end=end();
+      return escaped?unescape(start,end,scratch):json.substring(start,end);
+   }
+
+   private Value.StringValue string(final int slices) {
+      final int start=i+1;
+      final int end=end();
+      if(slices<=end-start) {
+         if(escaped) {
+            unescape(start,end,null);
+         }
+         return Value.slice(new Slice(json,start,end,escaped));
+      }
+      return Value.string(escaped?unescape(start,end,scratch):json.substring(start,end));
+   }
+
+   /**
+    * Finds the end of the string, which also stops at escapes and (forbidden) control characters.
+    *
+    * @return the position of the closing quote (with the parser positioned just after it)
+    */
+   private int end() {
+      escaped=false;
+      int j=i+1;
+      while(true) {
+         j=special(j);
+         if(json.length()<=j) {
+            i=j;
+            throw syntax("unterminated string");
+         }
+         final char c=json.charAt(j);
+         if(c=='"') {
+            i=j+1;
+            return j;
+         }
+         if(c=='\\') {
+            escaped=true;
+            j+=2;
+         } else if(c<' ') {
+            i=j;
+            throw syntax("unescaped control character"); // ECMA-404 only allows them escaped
+         } else {
+            j++; // A character beyond U+00FF, with the low byte of one of the above
+         }
+      }
+   }
+
+   /**
+    * @return the position of the first '"', '\' or control character (at or after from), or the length of the input if there is none
+    */
+   private int special(final int from) {
+      final int end=Math.min(from+8,json.length());
+      for(int j=from;j<end;j++) { // Most strings are short
+         final char c=json.charAt(j);
+         if(c=='"'||c=='\\'||c<' ') {
+            return j;
+         }
+      }
+      return scan(true,end);
+   }
+
+   /**
+    * Scans the input with the {@link Scanner}, a window at a time.
+    *
+    * @param string whether to look for the special characters of strings (or else for anything but whitespace)
+    * @return the position of the first character found (at or after from), or the length of the input if there is none
+    */
+   private int scan(final boolean string,final int from) {
+      int position=from;
+      while(position<json.length()) {
+         if(position<base||limit<=position) {
+            base=position;
+            limit=Math.min(position+WINDOW,json.length());
+            scanner.image(json,base,limit);
+         }
+         final int found=string?scanner.string(position-base,limit-base):scanner.whitespace(position-base,limit-base);
+         if(found<limit-base) {
+            return base+found;
+         }
+         position=limit;
+      }
+      return json.length();
+   }
+
+   /**
+    * Decodes the escapes into the given builder (or only checks them if there is none).
+    */
+   private String unescape(final int start,final int end,final StringBuilder value) {
+      if(value!=null) {
+         value.setLength(0);
+      }
+      for(int j=start;j<end;j++) {
+         final char c=json.charAt(j);
+         if(c!='\\') {
+            if(value!=null) {
+               value.append(c);
+            }
+            continue;
+         }
+         final char escaped=json.charAt(++j);
+         final char decoded;
+         switch(escaped) {
+            case '\\':
+            case '"':
+            case '/':
+               decoded=escaped;
+               break;
+            case 'b':
+               decoded='\b';
+               break;
+            case 'f':
+               decoded='\f';
+               break;
+            case 'n':
+               decoded='\n';
+               break;
+            case 'r':
+               decoded='\r';
+               break;
+            case 't':
+               decoded='\t';
+               break;
+            case 'u':
+               int code=0;
+               for(int k=0;k<4;k++) {
+                  final int digit=j+1<end?Character.digit(json.charAt(++j),16):-1;
+                  if(digit<0) {
+                     i=j;
+                     throw syntax("expected a hexadecimal digit");
+                  }
+                  code=code<<4|digit;
+               }
+               decoded=(char)code;
+               break;
+            default:
+               i=j;
+               throw syntax("invalid escape");
+         }
+         if(value!=null) {
+            value.append(decoded);
+         }
+      }
+      return value==null?null:value.toString();
+   }
+
+   private double number() {
+      final int start=i;
+      if(json.charAt(i)=='-') {
+         i++;
+      }
+      if(i<json.length()&&json.charAt(i)=='0') {
+         i++;
+      } else {
+         digits();
+      }
+      if(i<json.length()&&json.charAt(i)=='.') {
+         i++;
+         digits();
+      }
+      if(i<json.length()&&(json.charAt(i)=='e'||json.charAt(i)=='E')) {
+         i++;
+         if(i<json.length()&&(json.charAt(i)=='-'||json.charAt(i)=='+')) {
+            i++;
+         }
+         digits();
+      }
+      return Numbers.parse(json,start,i);
+   }
+
+   private void digits() {
+      final int start=i;
+      while(i<json.length()&&'0'<=json.charAt(i)&&json.charAt(i)<='9') {
+         i++;
+      }
+      if(i==start) {
+         throw syntax("expected a digit");
+      }
+   }
+
+   private SyntaxException syntax(final String expected) {
+      return Json.syntax(json,i,expected);
+   }
+}
@@ -0,0 +1,293 @@
+package com.okaphone.yajp;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * A small pull tokenizer on top of a {@link Reader}, for streaming use without building {@link Value} trees.
+ * Reads through its own buffer so memory use is constant, no matter how large the input is.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+final class Lexer {
+   private static final int EOF=-1;
+   private static final Appendable NONE=new Appendable() { // Discards everything
+      @Override
+      public Appendable append(final char c) {
+         return this;
+      }
+
+      @Override
+      public Appendable append(final CharSequence s) {
+         return this;
+      }
+
+      @Override
+      public Appendable append(final CharSequence s,final int start,final int end) {
+         return this;
+      }
+   };
+   private final Reader reader;
+   private final char[] buffer=new char[8192];
+   private int position;
+   private int limit;
+   private long offset; // Of the start of the buffer
+   private long line=1; // At the start of the buffer
+   private long column=1; // At the start of the buffer
+
+   Lexer(final Reader reader) {
+      this.reader=reader;
+   }
+
+   private boolean fill() throws IOException {
+      if(position<limit) {
+         return true;
+      }
+      for(int i=0;i<limit;i++) {
+         if(buffer[i]=='\n') {
+            line++;
+            column=1;
+         } else {
+            column++;
+         }
+      }
+      offset+=limit;
+      position=0;
+      limit=Math.max(0,reader.read(buffer));
+      return 0<limit;
+   }
+
+   /**
+    * @return the next non-whitespace character (without consuming it) or -1 at the end of the input
+    */
+   int peek() throws IOException {
+      while(fill()) {
+         final char c=buffer[position];
+         if(' '<c||c!=' '&&c!='\r'&&c!='\n'&&c!='\t') {
+            return c;
+         }
+         position++;
+      }
+      return EOF;
+   }
+
+   private int read() throws IOException {
+      return fill()?buffer[position++]:EOF;
+   }
+
+   /**
+    * Consumes the next non-whitespace character, which should be the given one.
+    */
+   void expect(final char next) throws IOException {
+      if(peek()!=next) {
+         throw syntax("expected '"+next+"'");
+      }
+      position++;
+   }
+
+   /**
+    * Consumes a separator (i.e. a comma) or the given closing character.
+    *
+    * @return true if there is another member or item
+    */
+   boolean next(final char close) throws IOException {
+      final int c=peek();
+      if(c==',') {
+         position++;
+         return true;
+      }
+      if(c==close) {
+         return false;
+      }
+      throw syntax("expected ',' or '"+close+"'");
+   }
+
+   /**
+    * Copies a literal (true, false or null) to the output.
+    */
+   void literal(final String literal,final Appendable out) throws IOException {
+      for(int i=0;i<literal.length();i++) {
+         if(read()!=literal.charAt(i)) {
+            throw syntax("expected "+literal);
+         }
+      }
+      out.append(literal);
+   }
+
+   /**
+    * Reads a quoted string and appends the decoded characters to the output.
+    */
+   void text(final StringBuilder out) throws IOException {
+      expect('"');
+      for(int c=read();c!='"';c=read()) {
+         if(c==EOF) {
+            throw syntax("unterminated string");
+         }
+         if(c<' ') {
+            throw syntax("unescaped control character");
+         }
+         if(c=='\\') {
+            c=read();
+            switch(c) {
+               case '"':
+               case '\\':
+               case '/':
+                  break;
+               case 'b':
+                  c='\b';
+                  break;
+               case 'f':
+                  c='\f';
+                  break;
+               case 'n':
+                  c='\n';
+                  break;
+               case 'r':
+                  c='\r';
+                  break;
+               case 't':
+                  c='\t';
+                  break;
+               case 'u':
+                  int code=0;
+                  for(int i=0;i<4;i++) {
+                     final int digit=Character.digit(read(),16);
+                     if(digit<0) {
+                        throw syntax("invalid escape");
+                     }
+                     code=code<<4|digit;
+                  }
+                  c=code;
+                  break;
+               default:
+                  throw syntax("invalid escape");
+            }
+         }
+         out.append((char)c);
+      }
+   }
+
+   /**
+    * Skips any value.
+    */
+   void skip() throws IOException {
+      switch(peek()) {
+         case '{':
+            expect('{');
+            if(peek()!='}') {
+               do {
+                  string(NONE);
+                  expect(':');
+                  skip();
+               } while(next('}'));
+            }
+            expect('}');
+            break;
+         case '[':
+            expect('[');
+            if(peek()!=']') {
+               do {
+                  skip();
+               } while(next(']'));
+            }
+            expect(']');
+            break;
+         case '"':
+            string(NONE);
+            break;
+         case 't':
+            literal("true",NONE);
+            break;
+         case 'f':
+            literal("false",NONE);
+            break;
+         case 'n':
+            literal("null",NONE);
+            break;
+         default:
+            number(NONE);
+      }
+   }
+
+   /**
+    * Copies a quoted string (including the quotes and escapes as-is) to the output.
+    */
+   void string(final Appendable out) throws IOException {
+      expect('"');
+      out.append('"');
+      for(int c=read();c!='"';c=read()) {
+         if(c==EOF) {
+            throw syntax("unterminated string");
+         }
+         if(c<' ') {
+            throw syntax("unescaped control character");
+         }
+         out.append((char)c);
+         if(c=='\\') {
+            final int escaped=read();
+            if(escaped<0||"\"\\/bfnrtu".indexOf(escaped)<0) {
+               throw syntax("invalid escape");
+            }
+            out.append((char)escaped);
+            if(escaped=='u') {
+               for(int i=0;i<4;i++) {
+                  final int hex=read();
+                  if(Character.digit(hex,16)<0) {
+                     throw syntax("invalid escape");
+                  }
+                  out.append((char)hex);
+               }
+            }
+         }
+      }
+      out.append('"');
+   }
+
+   /**
+    * Copies a number (ECMA-404 syntax) to the output.
+    */
+   void number(final Appendable out) throws IOException {
+      if(peek()=='-') {
+         out.append((char)read());
+      }
+      if(fill()&&buffer[position]=='0') {
+         out.append((char)read());
+      } else if(digits(out)==0) {
+         throw syntax("expected a value");
+      }
+      if(fill()&&buffer[position]=='.') {
+         out.append((char)read());
+         if(digits(out)==0) {
+            throw syntax("expected a digit");
+         }
+      }
+      if(fill()&&(buffer[position]=='e'||buffer[position]=='E')) {
+         out.append((char)read());
+         if(fill()&&(buffer[position]=='-'||buffer[position]=='+')) {
+            out.append((char)read());
+         }
+         if(digits(out)==0) {
+            throw syntax("expected a digit");
+         }
+      }
+   }
+
+   private int digits(final Appendable out) throws IOException {
+      int count=0;
+      while(fill()&&'0'<=buffer[position]&&buffer[position]<='9') {
+         out.append(buffer[position++]);
+         count++;
+      }
+      return count;
+   }
+
+   Json.SyntaxException syntax(final String expected) {
+      final Json.SyntaxException relative=Json.syntax(CharBuffer.wrap(buffer,0,limit),position,expected);
+      return new Json.SyntaxException(expected,
+                                      offset+position,
+                                      line+relative.line()-1,
+                                      relative.line()==1?column+relative.column()-1:relative.column(),
+                                      relative.context());
+   }
+}
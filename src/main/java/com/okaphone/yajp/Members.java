@@ -0,0 +1,345 @@
+package com.okaphone.yajp;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The members of an object value: a persistent hash map (a hash array mapped trie).
+ * An update copies only the nodes on the path to the member (at most 7 nodes of at most 32 entries), everything else is shared.
+ * It is an immutable {@link Map}, so the usual ways of reading it work.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+final class Members
+      extends AbstractMap<String,Value<?>> {
+   static final Members EMPTY=new Members(new Node(0,new Object[0]),0);
+   private static final int COLLISION=35; // The shift at which the 32 bits of the hash have been used up
+   private final Node root;
+   private final int size;
+
+   private Members(final Node root,final int size) {
+      this.root=root;
+      this.size=size;
+   }
+
+   /**
+    * A node holds a key and value pair for every bit in its bitmap, or a null key and a child node for bits that are shared by more keys.
+    * Below the last level the bitmap is not used and the node holds the pairs of keys with equal hashes.
+    */
+   private static final class Node {
+      private final int bitmap;
+      private final Object[] array;
+
+      private Node(final int bitmap,final Object[] array) {
+         this.bitmap=bitmap;
+         this.array=array;
+      }
+   }
+
+   /**
+    * Builds the members in one go (the later of duplicate keys wins), without the path copying of {@link #with(String,Value)}.
+    */
+   static Members of(final String[] keys,final Value<?>[] values,final int from,final int to) {
+      int bitmap=0;
+      for(int i=from;i<to;i++) {
+         bitmap|=1<<(hash(keys[i])&31);
+      }
+      if(Integer.bitCount(bitmap)==to-from) { // Every key has a slot of its own in the root (as for most small objects)
+         final Object[] array=new Object[to-from<<1];
+         for(int i=from;i<to;i++) {
+            final int j=Integer.bitCount(bitmap&(1<<(hash(keys[i])&31))-1)<<1;
+            array[j]=keys[i];
+            array[j+1]=values[i];
+         }
+         return new Members(new Node(bitmap,array),to-from);
+      }
+      final int[] hashes=new int[to-from];
+      final int[] order=new int[to-from];
+      for(int i=0;i<order.length;i++) {
+         hashes[i]=hash(keys[from+i]);
+         order[i]=from+i;
+      }
+      final Node root=build(keys,values,hashes,from,order,0,order.length,0);
+      return new Members(root,count(root,0));
+   }
+
+   private static Node build(final String[] keys,final Value<?>[] values,final int[] hashes,final int from,final int[] order,final int start,final int end,final int shift) {
+      if(COLLISION<=shift) {
+         return collision(keys,values,order,start,end);
+      }
+      final int[] buckets=new int[33];
+      int bitmap=0;
+      for(int i=start;i<end;i++) {
+         final int bit=hashes[order[i]-from]>>>shift&31;
+         buckets[bit+1]++;
+         bitmap|=1<<bit;
+      }
+      for(int bit=0;bit<32;bit++) {
+         buckets[bit+1]+=buckets[bit];
+      }
+      final int[] sorted=new int[end-start];
+      for(int i=start;i<end;i++) { // Stable, so the later of duplicate keys stays later
+         sorted[buckets[hashes[order[i]-from]>>>shift&31]++]=order[i];
+      }
+      System.arraycopy(sorted,0,order,start,sorted.length);
+      final Object[] array=new Object[Integer.bitCount(bitmap)<<1];
+      int first=start;
+      for(int i=0;i<array.length;i+=2) {
+         int last=first+1;
+         while(last<end&&(hashes[order[last]-from]^hashes[order[first]-from])>>>shift<<27==0) {
+            last++;
+         }
+         if(same(keys,order,first,last)) {
+            array[i]=keys[order[last-1]];
+            array[i+1]=values[order[last-1]];
+         } else {
+            array[i+1]=build(keys,values,hashes,from,order,first,last,shift+5);
+         }
+         first=last;
+      }
+      return new Node(bitmap,array);
+   }
+
+   private static boolean same(final String[] keys,final int[] order,final int first,final int last) {
+      for(int i=first+1;i<last;i++) {
+         if(!keys[order[i]].equals(keys[order[first]])) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private static Node collision(final String[] keys,final Value<?>[] values,final int[] order,final int start,final int end) {
+      final Object[] array=new Object[end-start<<1];
+      int length=0;
+      for(int i=start;i<end;i++) {
+         final int j=find(array,length,keys[order[i]]);
+         array[j]=keys[order[i]];
+         array[j+1]=values[order[i]];
+         length=Math.max(length,j+2);
+      }
+      return new Node(0,Arrays.copyOf(array,length));
+   }
+
+   private static int count(final Node node,final int shift) {
+      if(COLLISION<=shift) {
+         return node.array.length>>1;
+      }
+      int count=0;
+      for(int i=0;i<node.array.length;i+=2) {
+         count+=node.array[i]==null?count((Node)node.array[i+1],shift+5):1;
+      }
+      return count;
+   }
+
+   private static int hash(final Object key) {
+      final int hash=key.hashCode();
+      return hash^hash>>>16; // Like HashMap, so that the high bits count too
+   }
+
+   /**
+    * @return the index of the key in the pairs of a collision node, or the length if it is not there
+    */
+   private static int find(final Object[] array,final int length,final Object key) {
+      int i=0;
+      while(i<length&&!array[i].equals(key)) {
+         i+=2;
+      }
+      return i;
+   }
+
+   @Override
+   public int size() {
+      return size;
+   }
+
+   @Override
+   public boolean containsKey(final Object key) {
+      return get(key)!=null; // Values are never null
+   }
+
+   @Override
+   public Value<?> get(final Object key) {
+      if(key==null) {
+         return null;
+      }
+      final int hash=hash(key);
+      Node node=root;
+      for(int shift=0;;shift+=5) {
+         if(COLLISION<=shift) {
+            final int i=find(node.array,node.array.length,key);
+            return i<node.array.length?(Value<?>)node.array[i+1]:null;
+         }
+         final int bit=1<<(hash>>>shift&31);
+         if((node.bitmap&bit)==0) {
+            return null;
+         }
+         final int i=Integer.bitCount(node.bitmap&bit-1)<<1;
+         if(node.array[i]!=null) {
+            return key.equals(node.array[i])?(Value<?>)node.array[i+1]:null;
+         }
+         node=(Node)node.array[i+1];
+      }
+   }
+
+   /**
+    * @return these members with one added or replaced
+    */
+   Members with(final String key,final Value<?> value) {
+      final Value<?> old=get(key);
+      if(old==value) {
+         return this;
+      }
+      return new Members(with(root,0,hash(key),key,value),old==null?size+1:size);
+   }
+
+   private static Node with(final Node node,final int shift,final int hash,final String key,final Value<?> value) {
+      if(COLLISION<=shift) {
+         final int i=find(node.array,node.array.length,key);
+         final Object[] array=Arrays.copyOf(node.array,Math.max(node.array.length,i+2));
+         array[i]=key;
+         array[i+1]=value;
+         return new Node(0,array);
+      }
+      final int bit=1<<(hash>>>shift&31);
+      final int i=Integer.bitCount(node.bitmap&bit-1)<<1;
+      if((node.bitmap&bit)==0) {
+         final Object[] array=new Object[node.array.length+2];
+         System.arraycopy(node.array,0,array,0,i);
+         array[i]=key;
+         array[i+1]=value;
+         System.arraycopy(node.array,i,array,i+2,node.array.length-i);
+         return new Node(node.bitmap|bit,array);
+      }
+      final Object[] array=node.array.clone();
+      if(array[i]==null) {
+         array[i+1]=with((Node)array[i+1],shift+5,hash,key,value);
+      } else if(key.equals(array[i])) {
+         array[i+1]=value;
+      } else {
+         array[i+1]=pair(shift+5,(String)array[i],hash(array[i]),(Value<?>)array[i+1],key,hash,value);
+         array[i]=null;
+      }
+      return new Node(node.bitmap,array);
+   }
+
+   private static Node pair(final int shift,final String key1,final int hash1,final Value<?> value1,final String key2,final int hash2,final Value<?> value2) {
+      if(COLLISION<=shift) {
+         return new Node(0,new Object[]{key1,value1,key2,value2});
+      }
+      final int bit1=hash1>>>shift&31;
+      final int bit2=hash2>>>shift&31;
+      if(bit1==bit2) {
+         return new Node(1<<bit1,new Object[]{null,pair(shift+5,key1,hash1,value1,key2,hash2,value2)});
+      }
+      return new Node(1<<bit1|1<<bit2,bit1<bit2?new Object[]{key1,value1,key2,value2}:new Object[]{key2,value2,key1,value1});
+   }
+
+   /**
+    * @return these members without the given one (or these members themselves when there is no such member)
+    */
+   Members without(final String key) {
+      if(!containsKey(key)) {
+         return this;
+      }
+      return size==1?EMPTY:new Members(without(root,0,hash(key),key),size-1);
+   }
+
+   private static Node without(final Node node,final int shift,final int hash,final String key) {
+      if(COLLISION<=shift) {
+         return new Node(0,remove(node.array,find(node.array,node.array.length,key)));
+      }
+      final int bit=1<<(hash>>>shift&31);
+      final int i=Integer.bitCount(node.bitmap&bit-1)<<1;
+      if(node.array[i]!=null) {
+         return new Node(node.bitmap&~bit,remove(node.array,i));
+      }
+      final Node child=without((Node)node.array[i+1],shift+5,hash,key);
+      final Object[] array=node.array.clone();
+      if(child.array.length==2&&child.array[0]!=null) { // A single member moves up
+         array[i]=child.array[0];
+         array[i+1]=child.array[1];
+      } else {
+         array[i+1]=child;
+      }
+      return new Node(node.bitmap,array);
+   }
+
+   private static Object[] remove(final Object[] array,final int i) {
+      final Object[] removed=new Object[array.length-2];
+      System.arraycopy(array,0,removed,0,i);
+      System.arraycopy(array,i+2,removed,i,removed.length-i);
+      return removed;
+   }
+
+   @Override
+   public Set<Map.Entry<String,Value<?>>> entrySet() {
+      return new AbstractSet<Map.Entry<String,Value<?>>>() {
+         @Override
+         public int size() {
+            return size;
+         }
+
+         @Override
+         public Iterator<Map.Entry<String,Value<?>>> iterator() {
+            return new Entries(root);
+         }
+      };
+   }
+
+   /**
+    * Walks the trie depth first.
+    */
+   private static final class Entries
+         implements Iterator<Map.Entry<String,Value<?>>> {
+      private final Object[][] arrays=new Object[COLLISION/5+1][];
+      private final int[] indices=new int[COLLISION/5+1];
+      private int depth;
+
+      private Entries(final Node root) {
+         arrays[0]=root.array;
+         advance();
+      }
+
+      private void advance() { // To the next pair (or past the end)
+         while(0<=depth) {
+            final Object[] array=arrays[depth];
+            final int i=indices[depth];
+            if(array.length<=i) {
+               depth--;
+               if(0<=depth) {
+                  indices[depth]+=2;
+               }
+            } else if(array[i]==null) {
+               arrays[++depth]=((Node)array[i+1]).array;
+               indices[depth]=0;
+            } else {
+               return;
+            }
+         }
+      }
+
+      @Override
+      public boolean hasNext() {
+         return 0<=depth;
+      }
+
+      @Override
+      public Map.Entry<String,Value<?>> next() {
+         if(depth<0) {
+            throw new NoSuchElementException();
+         }
+         final Object[] array=arrays[depth];
+         final int i=indices[depth];
+         final Map.Entry<String,Value<?>> entry=new AbstractMap.SimpleImmutableEntry<>((String)array[i],(Value<?>)array[i+1]);
+         indices[depth]+=2;
+         advance();
+         return entry;
+      }
+   }
+}
@@ -0,0 +1,352 @@
+package com.okaphone.yajp;
+
+import java.math.BigInteger;
+
+/**
+ * Fast, allocation-free number output.
+ * Floating point numbers are written in their shortest form that parses back to the same value (Schubfach algorithm, R. Giulietti)
+ * and formatted like ECMAScript does (so 1.0E10 becomes 10000000000 and 1.0E-7 becomes 1e-7).
+ * Integers are written two digits at a time.
+ *
+ * Utility class, no need to create an instance.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public class Numbers {
+   /**
+    * The maximum number of bytes written for any number.
+    */
+   public static final int MAX_LENGTH=26;
+   private static final byte[] DIGITS=new byte[200]; // "00" to "99"
+   private static final byte[] MIN_LONG="-9223372036854775808".getBytes();
+   private static final ThreadLocal<byte[]> SCRATCH=ThreadLocal.withInitial(()->new byte[MAX_LENGTH]);
+   private static final int K_MIN=-324;
+   private static final int K_MAX=292;
+   private static final long[] G=new long[K_MAX-K_MIN+1<<1]; // floor(10^-k 2^-r)+1 split in 63 bit halves, r=flog2pow10(-k)-125
+   private static final long MASK_63=(1L<<63)-1;
+   private static final long MAX_MANTISSA=(1L<<53)-1; // The largest mantissa that is exact as double
+   private static final double[] POW10=new double[23]; // The powers of 10 that are exact as double
+   private static final Format DOUBLE=new Format(53,11,-1074);
+   private static final Format FLOAT=new Format(24,8,-149);
+
+   static {
+      POW10[0]=1.0;
+      for(int i=1;i<POW10.length;i++) {
+         POW10[i]=POW10[i-1]*10.0;
+      }
+      for(int i=0;i<100;i++) {
+         DIGITS[i<<1]=(byte)('0'+i/10);
+         DIGITS[i<<1|1]=(byte)('0'+i%10);
+      }
+      for(int k=K_MIN;k<=K_MAX;k++) {
+         final int r=flog2pow10(-k)-125;
+         final BigInteger g=(k<=0
+                             ?r<0?BigInteger.TEN.pow(-k).shiftLeft(-r):BigInteger.TEN.pow(-k).shiftRight(r)
+                             :BigInteger.ONE.shiftLeft(-r).divide(BigInteger.TEN.pow(k))).add(BigInteger.ONE);
+         G[k-K_MIN<<1]=g.shiftRight(63).longValue();
+         G[k-K_MIN<<1|1]=g.longValue()&MASK_63;
+      }
+   }
+
+   private Numbers() {
+   }
+
+   private static final class Format {
+      private final int p; // Precision in bits (including the hidden bit)
+      private final int bqMax; // Biased exponent of infinity and NaN
+      private final int qMin;
+      private final long cMin;
+
+      private Format(final int p,final int w,final int qMin) {
+         this.p=p;
+         this.bqMax=(1<<w)-1;
+         this.qMin=qMin;
+         this.cMin=1L<<p-1;
+      }
+   }
+
+   private static int flog10pow2(final int e) {
+      return (int)(e*661_971_961_083L>>41);
+   }
+
+   private static int flog10threeQuartersPow2(final int e) {
+      return (int)(e*661_971_961_083L-274_743_187_321L>>41);
+   }
+
+   private static int flog2pow10(final int e) {
+      return (int)(e*913_124_641_741L>>38);
+   }
+
+   private static long multiplyHigh(final long x,final long y) { // Math.multiplyHigh is Java 9+
+      final long x1=x>>32;
+      final long x0=x&0xffffffffL;
+      final long y1=y>>32;
+      final long y0=y&0xffffffffL;
+      final long t=x1*y0+(x0*y0>>>32);
+      return x1*y1+(t>>32)+(x0*y1+(t&0xffffffffL)>>32);
+   }
+
+   private static long rop(final long g1,final long g0,final long cp) {
+      final long x1=multiplyHigh(g0,cp);
+      final long y0=g1*cp;
+      final long y1=multiplyHigh(g1,cp);
+      final long z=(y0>>>1)+x1;
+      final long vbp=y1+(z>>>63);
+      return vbp|(z&MASK_63)+MASK_63>>>63;
+   }
+
+   /**
+    * Writes an integer.
+    *
+    * @param value the integer to write
+    * @param buffer the buffer to write to (should have room for at least {@link #MAX_LENGTH} bytes)
+    * @param offset where to start writing
+    * @return the offset just after the written bytes
+    */
+   public static int write(final long value,final byte[] buffer,final int offset) {
+      if(value==Long.MIN_VALUE) {
+         System.arraycopy(MIN_LONG,0,buffer,offset,MIN_LONG.length);
+         return offset+MIN_LONG.length;
+      }
+      if(value<0) {
+         buffer[offset]='-';
+         return digits(-value,buffer,offset+1);
+      }
+      return digits(value,buffer,offset);
+   }
+
+   /**
+    * Writes a double in its shortest form.
+    *
+    * @param value the (finite) double to write
+    * @param buffer the buffer to write to (should have room for at least {@link #MAX_LENGTH} bytes)
+    * @param offset where to start writing
+    * @return the offset just after the written bytes
+    *
+    * @throws IllegalArgumentException on NaN or infinity (they have no JSON representation)
+    */
+   public static int write(final double value,final byte[] buffer,final int offset) {
+      final long bits=Double.doubleToRawLongBits(value);
+      return write(DOUBLE,bits<0,(int)(bits>>>52)&0x7ff,bits&(1L<<52)-1,buffer,offset);
+   }
+
+   /**
+    * Writes a float in its shortest form.
+    *
+    * @param value the (finite) float to write
+    * @param buffer the buffer to write to (should have room for at least {@link #MAX_LENGTH} bytes)
+    * @param offset where to start writing
+    * @return the offset just after the written bytes
+    *
+    * @throws IllegalArgumentException on NaN or infinity (they have no JSON representation)
+    */
+   public static int write(final float value,final byte[] buffer,final int offset) {
+      final int bits=Float.floatToRawIntBits(value);
+      return write(FLOAT,bits<0,bits>>>23&0xff,bits&(1<<23)-1,buffer,offset);
+   }
+
+   public static StringBuilder append(final StringBuilder builder,final double value) {
+      final byte[] scratch=SCRATCH.get();
+      return append(builder,scratch,write(value,scratch,0));
+   }
+
+   public static StringBuilder append(final StringBuilder builder,final float value) {
+      final byte[] scratch=SCRATCH.get();
+      return append(builder,scratch,write(value,scratch,0));
+   }
+
+   private static StringBuilder append(final StringBuilder builder,final byte[] scratch,final int length) {
+      for(int i=0;i<length;i++) {
+         builder.append((char)scratch[i]);
+      }
+      return builder;
+   }
+
+   public static String toString(final double value) {
+      return append(new StringBuilder(MAX_LENGTH),value).toString();
+   }
+
+   public static String toString(final float value) {
+      return append(new StringBuilder(MAX_LENGTH),value).toString();
+   }
+
+   /**
+    * Parses a number that is known to have valid ECMA-404 syntax.
+    * Numbers with at most 15 or so significant digits and a small exponent are exact as the quotient or product of two doubles,
+    * anything else is left to Double.parseDouble.
+    */
+   static double parse(final CharSequence number,final int start,final int end) {
+      int i=start;
+      final boolean negative=number.charAt(i)=='-';
+      if(negative) {
+         i++;
+      }
+      long mantissa=0;
+      int exponent=0;
+      boolean exact=true;
+      boolean fraction=false;
+      for(;i<end;i++) {
+         final char c=number.charAt(i);
+         if(c=='.') {
+            fraction=true;
+         } else if(c=='e'||c=='E') {
+            break;
+         } else if(mantissa<=MAX_MANTISSA) {
+            mantissa=mantissa*10+c-'0';
+            if(fraction) {
+               exponent--;
+            }
+         } else {
+            exact=false;
+         }
+      }
+      if(i<end) {
+         final boolean minus=number.charAt(++i)=='-';
+         if(minus||number.charAt(i)=='+') {
+            i++;
+         }
+         int value=0;
+         while(i<end) {
+            value=Math.min(value*10+number.charAt(i++)-'0',100_000);
+         }
+         exponent+=minus?-value:value;
+      }
+      if(exact&&mantissa<=MAX_MANTISSA&&-POW10.length<exponent&&exponent<POW10.length) {
+         final double value=exponent<0?mantissa/POW10[-exponent]:mantissa*POW10[exponent];
+         return negative?-value:value;
+      }
+      return Double.parseDouble(number.subSequence(start,end).toString());
+   }
+
+   private static int write(final Format format,final boolean negative,final int bq,final long t,final byte[] buffer,int offset) {
+      if(bq==format.bqMax) {
+         throw new IllegalArgumentException("not a JSON number: "+(t!=0?"NaN":negative?"-Infinity":"Infinity"));
+      }
+      if(bq==0&&t==0) {
+         buffer[offset]='0'; // Including -0, like ECMAScript
+         return offset+1;
+      }
+      if(negative) {
+         buffer[offset++]='-';
+      }
+      if(bq!=0) {
+         final int mq=-format.qMin+1-bq;
+         final long c=format.cMin|t;
+         if(0<mq&&mq<format.p) {
+            final long f=c>>mq;
+            if(f<<mq==c) {
+               return format(f,0,buffer,offset);
+            }
+         }
+         return decimal(format,-mq,c,buffer,offset);
+      }
+      return decimal(format,format.qMin,t,buffer,offset);
+   }
+
+   private static int decimal(final Format format,final int q,final long c,final byte[] buffer,final int offset) {
+      final int out=(int)c&1;
+      final long cb=c<<2;
+      final long cbr=cb+2;
+      final long cbl;
+      final int k;
+      if(c!=format.cMin||q==format.qMin) {
+         cbl=cb-2;
+         k=flog10pow2(q);
+      } else {
+         cbl=cb-1;
+         k=flog10threeQuartersPow2(q);
+      }
+      final int h=q+flog2pow10(-k)+2;
+      final long g1=G[k-K_MIN<<1];
+      final long g0=G[k-K_MIN<<1|1];
+      final long vb=rop(g1,g0,cb<<h);
+      final long vbl=rop(g1,g0,cbl<<h);
+      final long vbr=rop(g1,g0,cbr<<h);
+      final long s=vb>>2;
+      final long sp10=10*multiplyHigh(s,115_292_150_460_684_698L<<4); // One digit shorter, if possible
+      final long tp10=sp10+10;
+      final boolean upin=vbl+out<=sp10<<2;
+      final boolean wpin=(tp10<<2)+out<=vbr;
+      if(upin!=wpin) {
+         return format(upin?sp10:tp10,k,buffer,offset);
+      }
+      final long t=s+1;
+      final boolean uin=vbl+out<=s<<2;
+      final boolean win=(t<<2)+out<=vbr;
+      if(uin!=win) {
+         return format(uin?s:t,k,buffer,offset);
+      }
+      final long cmp=vb-(s+t<<1);
+      return format(cmp<0||cmp==0&&(s&1)==0?s:t,k,buffer,offset);
+   }
+
+   /**
+    * Writes f 10^e (f positive) like ECMAScript's Number.prototype.toString.
+    */
+   private static int format(long f,int e,final byte[] buffer,final int offset) {
+      while(f%10==0) {
+         f/=10;
+         e++;
+      }
+      final int length=length(f);
+      final int n=length+e; // Position of the decimal point relative to the first digit
+      if(length<=n&&n<=21) {
+         int end=digits(f,buffer,offset);
+         for(int i=length;i<n;i++) {
+            buffer[end++]='0';
+         }
+         return end;
+      }
+      if(0<n&&n<=21) {
+         final int end=digits(f,buffer,offset+1);
+         System.arraycopy(buffer,offset+1,buffer,offset,n);
+         buffer[offset+n]='.';
+         return end;
+      }
+      if(-6<n&&n<=0) {
+         int end=offset;
+         buffer[end++]='0';
+         buffer[end++]='.';
+         for(int i=n;i<0;i++) {
+            buffer[end++]='0';
+         }
+         return digits(f,buffer,end);
+      }
+      int end=digits(f,buffer,offset+1);
+      buffer[offset]=buffer[offset+1];
+      if(length==1) {
+         end=offset+1;
+      } else {
+         buffer[offset+1]='.';
+      }
+      buffer[end++]='e';
+      buffer[end++]=(byte)(n>0?'+':'-');
+      return digits(Math.abs(n-1),buffer,end);
+   }
+
+   private static int length(final long value) {
+      int length=1;
+      for(long limit=10;length<19&&limit<=value;limit*=10) {
+         length++;
+      }
+      return length;
+   }
+
+   private static int digits(long value,final byte[] buffer,final int offset) {
+      final int end=offset+length(value);
+      int i=end;
+      while(value>=100) {
+         final int pair=(int)(value%100)<<1;
+         value/=100;
+         buffer[--i]=DIGITS[pair|1];
+         buffer[--i]=DIGITS[pair];
+      }
+      if(value>=10) {
+         buffer[--i]=DIGITS[(int)value<<1|1];
+         buffer[--i]=DIGITS[(int)value<<1];
+      } else {
+         buffer[--i]=(byte)('0'+value);
+      }
+      return end;
+   }
+}
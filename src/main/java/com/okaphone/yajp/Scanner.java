@@ -0,0 +1,112 @@
+package com.okaphone.yajp;
+
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Classifies a window of the input in bulk.
+ * This version finds the special characters of strings 8 at a time (SWAR: the bytes are tested in parallel within long words).
+ * It works on the low bytes of the characters, which is a plain array copy for most strings but means that a character beyond U+00FF
+ * can look like one of the special characters, so the caller has to check every hit (nothing is ever missed though).
+ * For the same reason whitespace is skipped a character at a time.
+ *
+ * On Java 17+ with the jdk.incubator.vector module present, {@link #create(int)} returns a version that uses the Vector API instead
+ * (it is part of the multi-release jar).
+ *
+ * An instance is not thread safe.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+class Scanner {
+   private static final Constructor<? extends Scanner> VECTOR=vector();
+   private static final long LOW=0x7f7f7f7f7f7f7f7fL;
+   private static final long HIGH=0x8080808080808080L;
+   private static final long QUOTE=0x2222222222222222L;
+   private static final long BACKSLASH=0x5c5c5c5c5c5c5c5cL;
+   private static final long CONTROL=0x6060606060606060L; // 0x80-0x20, so bytes below 0x20 do not reach the high bit
+   private final ByteBuffer image; // The low bytes of the window
+   private String input;
+   private int offset;
+
+   /**
+    * @param window the maximum number of characters in the window
+    */
+   Scanner(final int window) {
+      image=ByteBuffer.allocate(window).order(ByteOrder.LITTLE_ENDIAN);
+   }
+
+   private static Constructor<? extends Scanner> vector() {
+      try {
+         final Constructor<? extends Scanner> vector=Class.forName("com.okaphone.yajp.VectorScanner").asSubclass(Scanner.class).getDeclaredConstructor(int.class);
+         vector.newInstance(0); // Fails without jdk.incubator.vector
+         return vector;
+      } catch(final ReflectiveOperationException|LinkageError e) {
+         return null; // Before Java 17, or without jdk.incubator.vector
+      }
+   }
+
+   /**
+    * @param window the maximum number of characters in the window
+    * @return the best scanner available
+    */
+   static Scanner create(final int window) {
+      try {
+         return VECTOR==null?new Scanner(window):VECTOR.newInstance(window);
+      } catch(final ReflectiveOperationException e) {
+         return new Scanner(window); // Does not happen
+      }
+   }
+
+   /**
+    * Copies part of the input into the window (the positions in the window are relative to from).
+    */
+   @SuppressWarnings("deprecation")
+   void image(final String input,final int from,final int to) {
+      this.input=input;
+      offset=from;
+      input.getBytes(from,to,image.array(),0); // Copies the low bytes
+   }
+
+   /**
+    * @return the position of the first '"', '\' or control character (at or after from), or to if there is none
+    */
+   int string(final int from,final int to) {
+      int i=from;
+      for(;i+8<=to;i+=8) {
+         final long word=image.getLong(i);
+         final long found=(zero(word^QUOTE)|zero(word^BACKSLASH)|~((word&LOW)+CONTROL|word))&HIGH;
+         if(found!=0) {
+            return i+(Long.numberOfTrailingZeros(found)>>3);
+         }
+      }
+      final byte[] bytes=image.array();
+      for(;i<to;i++) {
+         final int c=bytes[i]&0xff;
+         if(c=='"'||c=='\\'||c<' ') {
+            return i;
+         }
+      }
+      return to;
+   }
+
+   /**
+    * @return the position of the first character that is not whitespace (at or after from), or to if there is none
+    */
+   int whitespace(final int from,final int to) {
+      for(int i=from;i<to;i++) {
+         final char c=input.charAt(offset+i);
+         if(c!=' '&&c!='\n'&&c!='\r'&&c!='\t') {
+            return i;
+         }
+      }
+      return to;
+   }
+
+   /**
+    * @return the high bit of every byte that is zero (exactly, no carries between bytes)
+    */
+   private static long zero(final long word) {
+      return ~((word&LOW)+LOW|word);
+   }
+}
@@ -0,0 +1,329 @@
+package com.okaphone.yajp;
+
+import static com.okaphone.yajp.Utils.replace;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * A compiled JSON schema that can be checked while parsing (see {@link Json#parse(String,Schema)}).
+ * Supports a practical subset of JSON Schema: type, required, properties, items, enum, minimum, maximum, minLength, maxLength,
+ * minItems, maxItems and pattern, as well as the boolean schemas true and false. Any other keywords are ignored.
+ * The supported keywords are checked when compiling, an invalid one gives an IllegalArgumentException naming it.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public final class Schema {
+   /**
+    * The schema that accepts anything.
+    */
+   public static final Schema ANY=new Schema();
+   /**
+    * The schema that accepts nothing (i.e. false).
+    */
+   public static final Schema NONE=new Schema();
+   private static final Set<String> TYPES=new HashSet<>(Arrays.asList("null","boolean","object","array","number","string","integer"));
+   private final Set<String> types;
+   private final Set<String> required;
+   private final Map<String,Schema> properties;
+   private final Schema items;
+   private final List<Value<?>> values;
+   private final Double minimum;
+   private final Double maximum;
+   private final Integer minLength;
+   private final Integer maxLength;
+   private final Integer minItems;
+   private final Integer maxItems;
+   private final Pattern pattern;
+
+   private Schema() {
+      types=null;
+      required=Collections.emptySet();
+      properties=Collections.emptyMap();
+      items=this;
+      values=null;
+      minimum=null;
+      maximum=null;
+      minLength=null;
+      maxLength=null;
+      minItems=null;
+      maxItems=null;
+      pattern=null;
+   }
+
+   private Schema(final Value<?> schema) {
+      types=types(schema);
+      final Value<?> required=keyword(schema,"required",Value.ArrayValue.class);
+      this.required=required==null?Collections.emptySet():strings("required",required);
+      final Value<?> properties=keyword(schema,"properties",Value.ObjectValue.class);
+      this.properties=new HashMap<>();
+      if(properties!=null) {
+         properties.object().forEach((key,value)->this.properties.put(key,compile(value)));
+      }
+      final Value<?> items=schema.get("items");
+      this.items=items==null?ANY:compile(items);
+      final Value<?> values=keyword(schema,"enum",Value.ArrayValue.class);
+      this.values=values==null?null:values.list();
+      minimum=Json.number0(keyword(schema,"minimum",Value.NumberValue.class));
+      maximum=Json.number0(keyword(schema,"maximum",Value.NumberValue.class));
+      minLength=length(schema,"minLength");
+      maxLength=length(schema,"maxLength");
+      minItems=length(schema,"minItems");
+      maxItems=length(schema,"maxItems");
+      final String pattern=Json.string0(keyword(schema,"pattern",Value.StringValue.class));
+      try {
+         this.pattern=pattern==null?null:Pattern.compile(pattern);
+      } catch(final PatternSyntaxException e) {
+         throw invalid("pattern",schema.get("pattern"));
+      }
+   }
+
+   /**
+    * @return the value of the keyword (or null if there is none)
+    *
+    * @throws IllegalArgumentException when the value has the wrong type
+    */
+   private static Value<?> keyword(final Value<?> schema,final String keyword,final Class<?> type) {
+      final Value<?> value=schema.get(keyword);
+      if(value!=null&&!type.isInstance(value)) {
+         throw invalid(keyword,value);
+      }
+      return value;
+   }
+
+   private static IllegalArgumentException invalid(final String keyword,final Value<?> value) {
+      return new IllegalArgumentException("invalid schema keyword "+keyword+": "+Canonical.toString(value));
+   }
+
+   private static Set<String> types(final Value<?> schema) {
+      final Value<?> type=schema.get("type");
+      if(type==null) {
+         return null;
+      }
+      final Set<String> types=type instanceof Value.ArrayValue?strings("type",type):Collections.singleton(type instanceof Value.StringValue?type.string():null);
+      if(!TYPES.containsAll(types)) {
+         throw invalid("type",type);
+      }
+      return types;
+   }
+
+   private static Set<String> strings(final String keyword,final Value<?> value) {
+      final Set<String> strings=new HashSet<>();
+      for(final Value<?> string:value.list()) {
+         if(!(string instanceof Value.StringValue)) {
+            throw invalid(keyword,value);
+         }
+         strings.add(string.string());
+      }
+      return strings;
+   }
+
+   private static Integer length(final Value<?> schema,final String keyword) {
+      final Value<?> value=keyword(schema,keyword,Value.NumberValue.class);
+      if(value!=null&&(value.number()<0||value.number()>Integer.MAX_VALUE||value.number()!=Math.rint(value.number()))) {
+         throw invalid(keyword,value);
+      }
+      return value==null?null:(int)value.number();
+   }
+
+   /**
+    * Compiles a JSON schema.
+    *
+    * @param schema the schema (an object, or true/false for a schema that accepts anything/nothing)
+    * @return the compiled schema
+    *
+    * @throws IllegalArgumentException when the schema (or one of its keywords) is not valid
+    */
+   public static Schema compile(final Value<?> schema) {
+      if(schema instanceof Value.BooleanValue) {
+         return schema.bool()?ANY:NONE;
+      }
+      if(!(schema instanceof Value.ObjectValue)) {
+         throw new IllegalArgumentException("invalid schema: "+Canonical.toString(schema));
+      }
+      return schema.isEmpty()?ANY:new Schema(schema);
+   }
+
+   /**
+    * Compiles a JSON schema.
+    *
+    * @param schema the schema as JSON string
+    * @return the compiled schema
+    *
+    * @throws IllegalArgumentException when the schema (or one of its keywords) is not valid
+    */
+   public static Schema compile(final String schema) {
+      return compile(Json.parse(schema));
+   }
+
+   /**
+    * Validates an already parsed value (including all of its members or items).
+    *
+    * @param value the value to check
+    * @return the value itself
+    *
+    * @throws Violation when the value does not conform to this schema
+    */
+   public Value<?> validate(final Value<?> value) {
+      if(this==ANY) {
+         return value;
+      }
+      if(value instanceof Value.ArrayValue) {
+         open("array");
+         for(int i=0;i<value.length();i++) {
+            try {
+               items.validate(value.get(i));
+            } catch(final Violation e) {
+               throw e.at(Integer.toString(i));
+            }
+         }
+      }
+      if(value instanceof Value.ObjectValue) {
+         open("object");
+         for(final String key:value.keys()) {
+            try {
+               property(key).validate(value.get(key));
+            } catch(final Violation e) {
+               throw e.at(key);
+            }
+         }
+      }
+      return check(value);
+   }
+
+   Schema items() {
+      return items;
+   }
+
+   /**
+    * Checks the number of items of an array while it is being parsed, so that an oversized array fails as soon as possible.
+    */
+   void count(final int items) {
+      if(maxItems!=null&&items>maxItems) {
+         throw new Violation("expected at most "+maxItems+" items");
+      }
+   }
+
+   Schema property(final String key) {
+      final Schema property=properties.get(key);
+      return property==null?ANY:property;
+   }
+
+   void open(final String type) {
+      if(this==NONE) {
+         throw new Violation("expected nothing but found "+type);
+      }
+      if(types!=null&&!types.contains(type)) {
+         throw new Violation("expected "+types+" but found "+type);
+      }
+   }
+
+   <VALUE extends Value<?>> VALUE check(final VALUE value) {
+      if(this==ANY) {
+         return value;
+      }
+      final String type=type(value);
+      if(this==NONE) {
+         throw new Violation("expected nothing but found "+type);
+      }
+      if(types!=null&&!types.contains(type)&&!("number".equals(type)&&types.contains("integer")&&value.number()==Math.rint(value.number()))) {
+         throw new Violation("expected "+types+" but found "+type);
+      }
+      if(values!=null&&!values.contains(value)) {
+         throw new Violation("expected one of "+values);
+      }
+      if(value instanceof Value.NumberValue) {
+         if(minimum!=null&&value.number()<minimum) {
+            throw new Violation("expected at least "+minimum);
+         }
+         if(maximum!=null&&value.number()>maximum) {
+            throw new Violation("expected at most "+maximum);
+         }
+      }
+      if(value instanceof Value.StringValue) {
+         if(minLength!=null&&value.length()<minLength) {
+            throw new Violation("expected length of at least "+minLength);
+         }
+         if(maxLength!=null&&value.length()>maxLength) {
+            throw new Violation("expected length of at most "+maxLength);
+         }
+      }
+      if(value instanceof Value.ArrayValue) {
+         if(minItems!=null&&value.length()<minItems) {
+            throw new Violation("expected at least "+minItems+" items");
+         }
+         count(value.length());
+      }
+      if(value instanceof Value.StringValue&&pattern!=null&&!pattern.matcher(value.string()).find()) {
+         throw new Violation("expected to match "+pattern);
+      }
+      if(value instanceof Value.ObjectValue) {
+         for(final String key:required) {
+            if(value.get(key)==null) {
+               throw new Violation("missing required member "+key);
+            }
+         }
+      }
+      return value;
+   }
+
+   private static String type(final Value<?> value) {
+      if(value.isNull()) {
+         return "null";
+      }
+      if(value instanceof Value.BooleanValue) {
+         return "boolean";
+      }
+      if(value instanceof Value.NumberValue) {
+         return "number";
+      }
+      if(value instanceof Value.StringValue) {
+         return "string";
+      }
+      if(value instanceof Value.ArrayValue) {
+         return "array";
+      }
+      return "object";
+   }
+
+   /**
+    * Thrown on the first value that does not conform to the schema.
+    * The path points at the offending value (formatted as JSON pointer, RFC 6901).
+    */
+   public static final class Violation
+         extends IllegalArgumentException {
+      private final Deque<String> path=new ArrayDeque<>();
+
+      private Violation(final String message) {
+         super(message);
+      }
+
+      Violation at(final String key) {
+         path.addFirst(key);
+         return this;
+      }
+
+      /**
+       * @return the JSON pointer to the offending value (empty for the root)
+       */
+      public String path() {
+         return path.stream()
+               .map(key->'/'+replace(key,(c)->c=='~'?"~0":c=='/'?"~1":null))
+               .collect(Collectors.joining());
+      }
+
+      @Override
+      public String getMessage() {
+         return "schema violation at "+(path.isEmpty()?"/":path())+": "+super.getMessage();
+      }
+   }
+}
@@ -0,0 +1,123 @@
+package com.okaphone.yajp;
+
+import java.io.Reader;
+
+/**
+ * A string value that is still part of the parsed input (i.e. the characters between the quotes, escapes not yet decoded).
+ * The escapes have been checked by the parser already, so decoding can not fail.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+final class Slice
+      implements CharSequence {
+   private final String source;
+   private final int start;
+   private final int end;
+   private final boolean escaped;
+
+   Slice(final String source,final int start,final int end,final boolean escaped) {
+      this.source=source;
+      this.start=start;
+      this.end=end;
+      this.escaped=escaped;
+   }
+
+   boolean escaped() {
+      return escaped;
+   }
+
+   /**
+    * Only valid if there are no escapes.
+    */
+   @Override
+   public int length() {
+      return end-start;
+   }
+
+   /**
+    * Only valid if there are no escapes.
+    */
+   @Override
+   public char charAt(final int i) {
+      if(i<0||length()<=i) {
+         throw new StringIndexOutOfBoundsException(i);
+      }
+      return source.charAt(start+i);
+   }
+
+   /**
+    * Only valid if there are no escapes.
+    */
+   @Override
+   public CharSequence subSequence(final int from,final int to) {
+      if(from<0||to<from||length()<to) {
+         throw new StringIndexOutOfBoundsException(from);
+      }
+      return new Slice(source,start+from,start+to,false);
+   }
+
+   /**
+    * @return the decoded string
+    */
+   @Override
+   public String toString() {
+      return escaped?Json.unescape(source,start,end):source.substring(start,end);
+   }
+
+   /**
+    * @return a reader of the decoded characters
+    */
+   Reader reader() {
+      return new Reader() {
+         private int position=start;
+
+         @Override
+         public int read(final char[] buffer,final int offset,final int length) {
+            if(end<=position) {
+               return -1;
+            }
+            if(!escaped) {
+               final int count=Math.min(length,end-position);
+               source.getChars(position,position+count,buffer,offset);
+               position+=count;
+               return count;
+            }
+            int count=0;
+            while(count<length&&position<end) {
+               final char c=source.charAt(position++);
+               buffer[offset+count++]=c=='\\'?unescape():c;
+            }
+            return count;
+         }
+
+         private char unescape() {
+            final char escaped=source.charAt(position++);
+            switch(escaped) {
+               case 'b':
+                  return '\b';
+               case 'f':
+                  return '\f';
+               case 'n':
+                  return '\n';
+               case 'r':
+                  return '\r';
+               case 't':
+                  return '\t';
+               case 'u':
+                  int code=0;
+                  for(int i=0;i<4;i++) {
+                     code=code<<4|Character.digit(source.charAt(position++),16);
+                  }
+                  return (char)code;
+               default: // \, " or /
+                  return escaped;
+            }
+         }
+
+         @Override
+         public void close() {
+            position=end;
+         }
+      };
+   }
+}
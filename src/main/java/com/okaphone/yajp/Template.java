@@ -0,0 +1,263 @@
+package com.okaphone.yajp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precompiled JSON message of a fixed shape, where only the values in the slots vary.
+ * The constant parts (keys, punctuation and fixed values) are encoded to UTF-8 once, rendering only writes the slot values.
+ * A template can be shared between threads, a {@link Buffer} can not.
+ *
+ * <pre>
+ * final Template event=Template.compile(new ObjectBuilder() {{ put("type","click"); put("x",Template.slot(0)); put("y",Template.slot(1)); }});
+ * event.render(buffer,12,34).writeTo(out);
+ * </pre>
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public final class Template {
+   private static final byte[] NULL="null".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] TRUE="true".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] FALSE="false".getBytes(StandardCharsets.US_ASCII);
+   private static final byte[] HEX="0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+   private final byte[][] parts; // One more than there are slots
+   private final int[] slots;
+   private final int values;
+
+   private Template(final byte[][] parts,final int[] slots) {
+      this.parts=parts;
+      this.slots=slots;
+      this.values=Arrays.stream(slots).max().orElse(-1)+1;
+   }
+
+   private static final class Slot {
+      private final int index;
+
+      private Slot(final int index) {
+         this.index=index;
+      }
+   }
+
+   /**
+    * A growable byte buffer to render into, meant to be reused for every message.
+    */
+   public static final class Buffer {
+      private byte[] bytes;
+      private int length;
+
+      public Buffer() {
+         this(256);
+      }
+
+      public Buffer(final int capacity) {
+         bytes=new byte[capacity];
+      }
+
+      /**
+       * @return the underlying array, only the first {@link #length()} bytes are valid
+       */
+      public byte[] bytes() {
+         return bytes;
+      }
+
+      public int length() {
+         return length;
+      }
+
+      public void writeTo(final OutputStream out) throws IOException {
+         out.write(bytes,0,length);
+      }
+
+      @Override
+      public String toString() {
+         return new String(bytes,0,length,StandardCharsets.UTF_8);
+      }
+
+      private void room(final int needed) {
+         if(bytes.length-length<needed) {
+            bytes=Arrays.copyOf(bytes,Math.max(bytes.length*2,length+needed));
+         }
+      }
+
+      private void write(final byte[] part) {
+         room(part.length);
+         System.arraycopy(part,0,bytes,length,part.length);
+         length+=part.length;
+      }
+
+      private void value(final Object value) {
+         if(value==null) {
+            write(NULL);
+         } else if(value instanceof Boolean) {
+            write((Boolean)value?TRUE:FALSE);
+         } else if(value instanceof Double||value instanceof Float) {
+            final double number=((Number)value).doubleValue();
+            if(!Double.isFinite(number)) {
+               write(NULL);
+            } else {
+               room(Numbers.MAX_LENGTH);
+               length=value instanceof Float?Numbers.write((Float)value,bytes,length):Numbers.write(number,bytes,length);
+            }
+         } else if(value instanceof Long||value instanceof Integer||value instanceof Short||value instanceof Byte) {
+            room(Numbers.MAX_LENGTH);
+            length=Numbers.write(((Number)value).longValue(),bytes,length);
+         } else if(value instanceof Extras.ObjectBuilder||value instanceof Extras.ArrayBuilder) {
+            write(Extras.value(new StringBuilder(),value).toString().getBytes(StandardCharsets.UTF_8));
+         } else {
+            string(value instanceof CharSequence?(CharSequence)value:value.toString());
+         }
+      }
+
+      /**
+       * Quotes, escapes and encodes in one go (the same escapes as {@link Extras}).
+       */
+      private void string(final CharSequence value) {
+         room(value.length()*3+2);
+         bytes[length++]='"';
+         for(int i=0;i<value.length();i++) {
+            final char c=value.charAt(i);
+            if(' '<=c&&c<0x80&&c!='"'&&c!='\\') {
+               bytes[length++]=(byte)c;
+            } else if(c<' '||c=='"'||c=='\\') {
+               room(6+(value.length()-i)*3+1);
+               bytes[length++]='\\';
+               switch(c) {
+                  case '"':
+                  case '\\':
+                     bytes[length++]=(byte)c;
+                     break;
+                  case '\b':
+                     bytes[length++]='b';
+                     break;
+                  case '\f':
+                     bytes[length++]='f';
+                     break;
+                  case '\n':
+                     bytes[length++]='n';
+                     break;
+                  case '\r':
+                     bytes[length++]='r';
+                     break;
+                  case '\t':
+                     bytes[length++]='t';
+                     break;
+                  default:
+                     bytes[length++]='u';
+                     bytes[length++]='0';
+                     bytes[length++]='0';
+                     bytes[length++]=HEX[c>>4];
+                     bytes[length++]=HEX[c&0xf];
+               }
+            } else if(c<0x800) {
+               bytes[length++]=(byte)(0xc0|c>>6);
+               bytes[length++]=(byte)(0x80|c&0x3f);
+            } else if(!Character.isSurrogate(c)) {
+               bytes[length++]=(byte)(0xe0|c>>12);
+               bytes[length++]=(byte)(0x80|c>>6&0x3f);
+               bytes[length++]=(byte)(0x80|c&0x3f);
+            } else if(Character.isHighSurrogate(c)&&i+1<value.length()&&Character.isLowSurrogate(value.charAt(i+1))) {
+               final int code=Character.toCodePoint(c,value.charAt(++i));
+               bytes[length++]=(byte)(0xf0|code>>18);
+               bytes[length++]=(byte)(0x80|code>>12&0x3f);
+               bytes[length++]=(byte)(0x80|code>>6&0x3f);
+               bytes[length++]=(byte)(0x80|code&0x3f);
+            } else {
+               bytes[length++]='?'; // Like String.getBytes does for unpaired surrogates
+            }
+         }
+         bytes[length++]='"';
+      }
+   }
+
+   /**
+    * A placeholder for a value that is only known when rendering.
+    * The same slot can be used more than once.
+    *
+    * @param index the index of the value (in the values passed to {@link #render(Buffer,Object...)})
+    */
+   public static Object slot(final int index) {
+      if(index<0) {
+         throw new IllegalArgumentException("negative slot: "+index);
+      }
+      return new Slot(index);
+   }
+
+   /**
+    * Compiles a message shape.
+    *
+    * @param shape an {@link Extras.ObjectBuilder} or {@link Extras.ArrayBuilder} (possibly nested) containing {@link #slot(int)}s
+    */
+   public static Template compile(final Object shape) {
+      final List<byte[]> parts=new ArrayList<>();
+      final List<Integer> slots=new ArrayList<>();
+      final StringBuilder constant=new StringBuilder();
+      compile(shape,constant,parts,slots);
+      parts.add(constant.toString().getBytes(StandardCharsets.UTF_8));
+      return new Template(parts.toArray(new byte[0][]),slots.stream().mapToInt(Integer::intValue).toArray());
+   }
+
+   private static void compile(final Object shape,final StringBuilder constant,final List<byte[]> parts,final List<Integer> slots) {
+      if(shape instanceof Slot) {
+         parts.add(constant.toString().getBytes(StandardCharsets.UTF_8));
+         slots.add(((Slot)shape).index);
+         constant.setLength(0);
+      } else if(shape instanceof Extras.ObjectBuilder) {
+         constant.append('{');
+         boolean first=true;
+         for(final Map.Entry<String,Object> member:((Extras.ObjectBuilder)shape).entrySet()) {
+            if(!first) {
+               constant.append(',');
+            }
+            first=false;
+            Extras.quote(constant,member.getKey()).append(':');
+            compile(member.getValue(),constant,parts,slots);
+         }
+         constant.append('}');
+      } else if(shape instanceof Extras.ArrayBuilder) {
+         constant.append('[');
+         final Extras.ArrayBuilder items=(Extras.ArrayBuilder)shape;
+         for(int i=0;i<items.size();i++) {
+            if(0<i) {
+               constant.append(',');
+            }
+            compile(items.get(i),constant,parts,slots);
+         }
+         constant.append(']');
+      } else {
+         Extras.value(constant,shape);
+      }
+   }
+
+   /**
+    * Renders a message into a buffer (replacing what was in it).
+    * The values are converted like {@link Extras} does.
+    *
+    * @param buffer the buffer to render into
+    * @param values the values for the slots
+    * @return the buffer
+    */
+   public Buffer render(final Buffer buffer,final Object... values) {
+      if(values.length<this.values) {
+         throw new IllegalArgumentException("expected "+this.values+" values");
+      }
+      buffer.length=0;
+      buffer.write(parts[0]);
+      for(int i=0;i<slots.length;i++) {
+         buffer.value(values[slots[i]]);
+         buffer.write(parts[i+1]);
+      }
+      return buffer;
+   }
+
+   /**
+    * @return the rendered message
+    */
+   public String toString(final Object... values) {
+      return render(new Buffer(),values).toString();
+   }
+}
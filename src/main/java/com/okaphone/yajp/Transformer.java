@@ -0,0 +1,293 @@
+package com.okaphone.yajp;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming JSON to JSON transformation (minify, pretty-print, drop, rename or redact members) without building a {@link Value} tree.
+ * The input is read and written in a single pass, using memory in proportion to the nesting depth only.
+ * Without any settings the transformer simply minifies.
+ *
+ * Paths are sequences of member names (and array indices, as strings) from the root, where "*" matches any name or index.
+ *
+ * © Copyright J.R. Marks 2023
+ */
+public final class Transformer {
+   /**
+    * The replacement for redacted strings.
+    */
+   public static final String REDACTED="\"***\"";
+   private static final Writer NONE=new Writer() {
+      @Override
+      public void write(final char[] buffer,final int offset,final int length) {
+      }
+
+      @Override
+      public Writer append(final char c) {
+         return this;
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+   };
+   private final List<Rule> rules=new ArrayList<>();
+   private String indent="";
+
+   private static final class Rule {
+      private final String[] path;
+      private final String name; // The new name (quoted), or null to keep the name
+      private final boolean drop;
+      private final boolean redact;
+
+      private Rule(final String[] path,final String name,final boolean drop,final boolean redact) {
+         this.path=path.clone();
+         this.name=name;
+         this.drop=drop;
+         this.redact=redact;
+      }
+
+      private boolean matches(final List<String> path) {
+         if(path.size()!=this.path.length) {
+            return false;
+         }
+         for(int i=0;i<this.path.length;i++) {
+            if(!"*".equals(this.path[i])&&!this.path[i].equals(path.get(i))) {
+               return false;
+            }
+         }
+         return true;
+      }
+   }
+
+   /**
+    * Pretty-prints the output.
+    *
+    * @param spaces the number of spaces per level (0 to minify)
+    * @return this transformer
+    */
+   public Transformer indent(final int spaces) {
+      indent=new String(new char[spaces]).replace('\0',' ');
+      return this;
+   }
+
+   /**
+    * Leaves out the members (or array items) at the given path.
+    *
+    * @return this transformer
+    */
+   public Transformer drop(final String... path) {
+      rules.add(new Rule(path,null,true,false));
+      return this;
+   }
+
+   /**
+    * Renames the members at the given path.
+    *
+    * @return this transformer
+    */
+   public Transformer rename(final String name,final String... path) {
+      rules.add(new Rule(path,Extras.quote(name),false,false));
+      return this;
+   }
+
+   /**
+    * Replaces all string values at (or nested below) the given path by {@link #REDACTED}.
+    *
+    * @return this transformer
+    */
+   public Transformer redact(final String... path) {
+      rules.add(new Rule(path,null,false,true));
+      return this;
+   }
+
+   /**
+    * Transforms a JSON string.
+    *
+    * @throws IllegalArgumentException on syntax errors
+    */
+   public String transform(final String json) {
+      final StringWriter out=new StringWriter(json.length());
+      try {
+         transform(new StringReader(json),out);
+      } catch(final IOException e) {
+         throw new UncheckedIOException(e);
+      }
+      return out.toString();
+   }
+
+   /**
+    * Transforms UTF-8 encoded JSON.
+    * The output stream is flushed but not closed.
+    *
+    * @throws IllegalArgumentException on syntax errors
+    */
+   public void transform(final InputStream in,final OutputStream out) throws IOException {
+      final Writer writer=new BufferedWriter(new OutputStreamWriter(out,StandardCharsets.UTF_8));
+      transform(new InputStreamReader(in,StandardCharsets.UTF_8),writer);
+      writer.flush();
+   }
+
+   /**
+    * Transforms JSON text.
+    * The writer is not flushed or closed.
+    *
+    * @throws IllegalArgumentException on syntax errors
+    */
+   public void transform(final Reader in,final Writer out) throws IOException {
+      final Lexer lexer=new Lexer(in);
+      value(lexer,out,rules.isEmpty()?null:new ArrayList<>(),0,false);
+      if(lexer.peek()>=0) {
+         throw lexer.syntax("expected end of input");
+      }
+   }
+
+   /**
+    * Combines all rules that match: drop wins, otherwise the (last) rename and any redact apply together.
+    */
+   private Rule rule(final List<String> path) {
+      Rule found=null;
+      if(path!=null) {
+         for(final Rule rule:rules) {
+            if(rule.matches(path)) {
+               found=found==null?rule:new Rule(rule.path,rule.name==null?found.name:rule.name,found.drop||rule.drop,found.redact||rule.redact);
+            }
+         }
+      }
+      return found;
+   }
+
+   private void value(final Lexer in,final Writer out,final List<String> path,final int depth,final boolean redact) throws IOException {
+      switch(in.peek()) {
+         case '{':
+            object(in,out,path,depth,redact);
+            break;
+         case '[':
+            array(in,out,path,depth,redact);
+            break;
+         case '"':
+            if(redact) {
+               in.string(NONE);
+               out.write(REDACTED);
+            } else {
+               in.string(out);
+            }
+            break;
+         case 't':
+            in.literal("true",out);
+            break;
+         case 'f':
+            in.literal("false",out);
+            break;
+         case 'n':
+            in.literal("null",out);
+            break;
+         default:
+            in.number(out);
+      }
+   }
+
+   private void object(final Lexer in,final Writer out,final List<String> path,final int depth,final boolean redact) throws IOException {
+      in.expect('{');
+      out.write('{');
+      boolean empty=true;
+      if(in.peek()!='}') {
+         final StringBuilder key=new StringBuilder();
+         do {
+            key.setLength(0);
+            in.string(key);
+            in.expect(':');
+            final Rule rule=member(path,path==null?null:Json.unquote(key.toString()));
+            if(rule!=null&&rule.drop) {
+               value(in,NONE,null,depth+1,false);
+            } else {
+               separate(out,depth+1,empty);
+               empty=false;
+               if(rule!=null&&rule.name!=null) {
+                  out.write(rule.name);
+               } else {
+                  out.append(key);
+               }
+               out.write(indent.isEmpty()?":":": ");
+               value(in,out,path,depth+1,redact||rule!=null&&rule.redact);
+            }
+            if(path!=null) {
+               path.remove(path.size()-1);
+            }
+         } while(in.next('}'));
+      }
+      in.expect('}');
+      close(out,depth,empty,'}');
+   }
+
+   private void array(final Lexer in,final Writer out,final List<String> path,final int depth,final boolean redact) throws IOException {
+      in.expect('[');
+      out.write('[');
+      boolean empty=true;
+      if(in.peek()!=']') {
+         int i=0;
+         do {
+            final Rule rule=member(path,path==null?null:Integer.toString(i++));
+            if(rule!=null&&rule.drop) {
+               value(in,NONE,null,depth+1,false);
+            } else {
+               separate(out,depth+1,empty);
+               empty=false;
+               value(in,out,path,depth+1,redact||rule!=null&&rule.redact);
+            }
+            if(path!=null) {
+               path.remove(path.size()-1);
+            }
+         } while(in.next(']'));
+      }
+      in.expect(']');
+      close(out,depth,empty,']');
+   }
+
+   private Rule member(final List<String> path,final String name) {
+      if(path==null) {
+         return null;
+      }
+      path.add(name);
+      return rule(path);
+   }
+
+   private void separate(final Writer out,final int depth,final boolean first) throws IOException {
+      if(!first) {
+         out.write(',');
+      }
+      newline(out,depth);
+   }
+
+   private void close(final Writer out,final int depth,final boolean empty,final char close) throws IOException {
+      if(!empty) {
+         newline(out,depth);
+      }
+      out.write(close);
+   }
+
+   private void newline(final Writer out,final int depth) throws IOException {
+      if(!indent.isEmpty()) {
+         out.write('\n');
+         for(int i=0;i<depth;i++) {
+            out.write(indent);
+         }
+      }
+   }
+}
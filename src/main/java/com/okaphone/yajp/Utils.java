@@ -1,5 +1,9 @@
 package com.okaphone.yajp;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.util.Arrays;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -12,6 +16,18 @@ import java.util.regex.Pattern;
  * © Copyright J.R. Marks 2023
  */
 public class Utils {
+   private static final byte[] BASE64=new byte[128]; // Both the standard and the URL safe alphabet
+
+   static {
+      Arrays.fill(BASE64,(byte)-1);
+      final String alphabet="ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+      for(int i=0;i<alphabet.length();i++) {
+         BASE64[alphabet.charAt(i)]=(byte)i;
+      }
+      BASE64['-']=62;
+      BASE64['_']=63;
+   }
+
    private Utils() {
    }
 
@@ -51,4 +67,59 @@ public class Utils {
       matcher.appendTail(result);
       return result.toString();
    }
+
+   /**
+    * Decodes base64 (or base64url, padded or not) while streaming.
+    *
+    * @param base64 the encoded characters
+    * @param out where to write the decoded bytes to (the stream is not closed)
+    * @return the number of bytes written
+    *
+    * @throws IllegalArgumentException if the input is not valid base64
+    */
+   public static final long base64(final Reader base64,final OutputStream out) throws IOException {
+      final char[] in=new char[4096];
+      final byte[] decoded=new byte[in.length/4*3];
+      long total=0;
+      int bits=0;
+      int count=0; // Number of characters in bits
+      int padding=0;
+      for(int length=base64.read(in);0<=length;length=base64.read(in)) {
+         int j=0;
+         for(int i=0;i<length;i++) {
+            final char c=in[i];
+            if(c=='='&&0<count+padding) {
+               padding++;
+               continue;
+            }
+            final int value=c<BASE64.length?BASE64[c]:-1;
+            if(value<0||0<padding) {
+               throw new IllegalArgumentException("invalid base64");
+            }
+            bits=bits<<6|value;
+            if(++count==4) {
+               decoded[j++]=(byte)(bits>>16);
+               decoded[j++]=(byte)(bits>>8);
+               decoded[j++]=(byte)bits;
+               bits=0;
+               count=0;
+            }
+         }
+         out.write(decoded,0,j);
+         total+=j;
+      }
+      if(count==1||0<padding&&(count+padding)%4!=0) {
+         throw new IllegalArgumentException("invalid base64");
+      }
+      if(count==2) {
+         out.write(bits>>4);
+         total++;
+      }
+      if(count==3) {
+         out.write(bits>>10);
+         out.write(bits>>2);
+         total+=2;
+      }
+      return total;
+   }
 }
@@ -1,8 +1,11 @@
 package com.okaphone.yajp;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -25,36 +28,91 @@ public abstract class Value<TYPE> {
    private static final BooleanValue FALSE=new BooleanValue(false);
    private static final NumberValue ZERO=new NumberValue(0.0);
    private static final StringValue STRING=new StringValue("");
-   private static final ArrayValue ARRAY=new ArrayValue();
-   private static final ObjectValue OBJECT=new ObjectValue(Collections.emptyMap());
+   private static final ArrayValue ARRAY=new ArrayValue(new Object[0],0);
+   private static final ObjectValue OBJECT=new ObjectValue(Members.EMPTY);
    private final TYPE value;
 
    private Value(final TYPE value) {
       this.value=value;
    }
 
-   static NullValue of() {
+   public static NullValue of() {
       return NULL;
    }
 
-   static BooleanValue of(final boolean value) {
+   public static BooleanValue of(final boolean value) {
       return value?TRUE:FALSE;
    }
 
-   static NumberValue of(final double value) {
+   public static NumberValue of(final double value) {
       return value==0.0?ZERO:new NumberValue(value);
    }
 
-   static StringValue of(final String value) {
+   /**
+    * @param value the string (a Java null becomes a JSON null)
+    */
+   public static Value<?> of(final String value) {
+      return value==null?NULL:value.isEmpty()?STRING:new StringValue(value);
+   }
+
+   static StringValue string(final String value) { // For the parser, never null
       return value.isEmpty()?STRING:new StringValue(value);
    }
 
-   static ArrayValue of(final Value<?>... value) {
-      return value.length==0?ARRAY:new ArrayValue(value);
+   /**
+    * @param value the items (Java nulls become JSON nulls)
+    */
+   public static ArrayValue of(final Value<?>... value) {
+      if(value.length==0) {
+         return ARRAY;
+      }
+      final Value<?>[] items=new Value<?>[value.length];
+      for(int i=0;i<value.length;i++) {
+         items[i]=nullable(value[i]);
+      }
+      return new ArrayValue(Items.of(items,0,items.length),items.length);
+   }
+
+   /**
+    * @param value the members (Java nulls become JSON nulls)
+    *
+    * @throws IllegalArgumentException on a null key
+    */
+   public static ObjectValue of(final Map<String,Value<?>> value) {
+      if(value.isEmpty()) {
+         return OBJECT;
+      }
+      final String[] keys=new String[value.size()];
+      final Value<?>[] members=new Value<?>[value.size()];
+      int i=0;
+      for(final Map.Entry<String,Value<?>> member:value.entrySet()) {
+         keys[i]=key(member.getKey());
+         members[i++]=nullable(member.getValue());
+      }
+      return new ObjectValue(Members.of(keys,members,0,i));
+   }
+
+   static StringValue slice(final Slice value) {
+      return new StringValue(value);
+   }
+
+   static ArrayValue wrap(final Value<?>[] values,final int from,final int to) { // For the parser, straight from its stack
+      return from==to?ARRAY:new ArrayValue(Items.of(values,from,to),to-from);
+   }
+
+   static ObjectValue wrap(final String[] keys,final Value<?>[] values,final int from,final int to) { // For the parser, straight from its stack
+      return from==to?OBJECT:new ObjectValue(Members.of(keys,values,from,to));
    }
 
-   static ObjectValue of(final Map<String,Value<?>> value) {
-      return value.isEmpty()?OBJECT:new ObjectValue(value);
+   private static Value<?> nullable(final Value<?> value) {
+      return value==null?NULL:value;
+   }
+
+   private static String key(final String key) {
+      if(key==null) {
+         throw new IllegalArgumentException("null key");
+      }
+      return key;
    }
 
    public boolean isNull() {
@@ -85,6 +143,32 @@ public abstract class Value<TYPE> {
       throw error();
    }
 
+   /**
+    * A view of a string value that does not copy it, if possible (see {@link JsonParser#slices(int)}).
+    */
+   public CharSequence chars() {
+      throw error();
+   }
+
+   /**
+    * Reads a string value without copying it (see {@link JsonParser#slices(int)}).
+    */
+   public Reader reader() {
+      throw error();
+   }
+
+   /**
+    * Decodes a base64 (or base64url) encoded string value without copying it (see {@link JsonParser#slices(int)}).
+    *
+    * @param out where to write the decoded bytes to (the stream is not closed)
+    * @return the number of bytes written
+    *
+    * @throws IllegalArgumentException if the value is not valid base64
+    */
+   public long base64(final OutputStream out) throws IOException {
+      throw error();
+   }
+
    public Value<?>[] array() {
       throw error();
    }
@@ -125,13 +209,75 @@ public abstract class Value<TYPE> {
       throw error();
    }
 
-   protected final TYPE value() {
+   /**
+    * Returns a copy of this object with one member added or replaced.
+    * Only the nodes on the path to the member are copied, the rest is shared (see {@link Members}).
+    * A Java null is taken to be a JSON null.
+    *
+    * @throws IllegalArgumentException on a null key
+    */
+   public Value<?> with(final String key,final Value<?> value) {
+      throw error();
+   }
+
+   /**
+    * Returns a copy of this object without the given member (or this object itself when there is no such member).
+    */
+   public Value<?> without(final String key) {
+      throw error();
+   }
+
+   /**
+    * Returns a copy of this array with one item replaced (or appended when the index equals the length).
+    * Only the nodes on the path to the item are copied, the rest is shared (see {@link Items}).
+    * A Java null is taken to be a JSON null.
+    */
+   public Value<?> with(final int i,final Value<?> value) {
+      throw error();
+   }
+
+   /**
+    * Returns a copy of this array without the given item.
+    * That is cheap for the last item, for any other item the array is rebuilt (all items after it move).
+    */
+   public Value<?> without(final int i) {
+      throw error();
+   }
+
+   /**
+    * Returns a copy of this object with the value at the given path replaced.
+    * Only the objects along the path are updated (like {@link #with(String,Value)}), missing ones are created.
+    */
+   public Value<?> set(final Value<?> value,final String... key) {
+      throw error();
+   }
+
+   /**
+    * Returns a copy of this array with the value at the given path replaced.
+    * Only the arrays along the path are updated (like {@link #with(int,Value)}).
+    */
+   public Value<?> set(final Value<?> value,final int... i) {
+      throw error();
+   }
+
+   /**
+    * Applies a JSON merge patch (RFC 7396) to this value.
+    * Members that are not touched by the patch are shared with this value, not copied.
+    *
+    * @param patch the merge patch
+    * @return the patched value
+    */
+   public Value<?> merge(final Value<?> patch) {
+      return patch instanceof ObjectValue?OBJECT.merge(patch):patch;
+   }
+
+   protected TYPE value() {
       return value;
    }
 
    @Override
    public String toString() {
-      return value.toString();
+      return String.valueOf(value());
    }
 
    @Override
@@ -140,14 +286,14 @@ public abstract class Value<TYPE> {
          return true;
       }
       if(other!=null&&other.getClass()==getClass()) {
-         return value.equals(((Value)other).value());
+         return value().equals(((Value)other).value());
       }
       return false;
    }
 
    @Override
    public int hashCode() {
-      return getClass().hashCode()*31+value.hashCode();
+      return getClass().hashCode()*31+value().hashCode();
    }
 
    private RuntimeException error() {
@@ -202,13 +348,33 @@ public abstract class Value<TYPE> {
 
    public static final class StringValue
          extends Value<String> {
+      private final Slice slice;
+      private String string; // The decoded slice (once needed)
+
       private StringValue(final String value) {
          super(value);
+         slice=null;
+      }
+
+      private StringValue(final Slice value) {
+         super(null);
+         slice=value;
+      }
+
+      @Override
+      protected String value() {
+         if(slice==null) {
+            return super.value();
+         }
+         if(string==null) {
+            string=slice.toString();
+         }
+         return string;
       }
 
       @Override
       public final boolean isEmpty() {
-         return value().isEmpty();
+         return length()==0;
       }
 
       @Override
@@ -218,34 +384,59 @@ public abstract class Value<TYPE> {
 
       @Override
       public final int length() {
-         return value().length();
+         return slice==null||slice.escaped()?value().length():slice.length();
+      }
+
+      @Override
+      public final CharSequence chars() {
+         return slice==null||slice.escaped()?value():slice;
+      }
+
+      @Override
+      public final Reader reader() {
+         return slice==null?new StringReader(value()):slice.reader();
+      }
+
+      @Override
+      public final long base64(final OutputStream out) throws IOException {
+         return Utils.base64(reader(),out);
       }
    }
 
    public static final class ArrayValue
          extends Value<Value<?>[]> {
-      private ArrayValue(final Value<?>... value) {
-         super(value.clone());
+      private final Object[] root; // See Items
+      private final int size;
+
+      private ArrayValue(final Object[] root,final int size) {
+         super(null);
+         this.root=root;
+         this.size=size;
+      }
+
+      @Override
+      protected Value<?>[] value() {
+         return Items.array(root,size);
       }
 
       @Override
       public boolean isEmpty() {
-         return value().length==0;
+         return size==0;
       }
 
       @Override
       public Value<?>[] array() {
-         return value().clone();
+         return value();
       }
 
       @Override
       public int length() {
-         return value().length;
+         return size;
       }
 
       @Override
       public Value<?> get(final int i) {
-         return value()[i];
+         return Items.get(root,size,i);
       }
 
       @Override
@@ -256,23 +447,49 @@ public abstract class Value<TYPE> {
 
       @Override
       public List<Value<?>> list() {
-         final List<Value<?>> list=new ArrayList<>();
-         for(final Value<?> item:value()) {
-            list.add(item);
-         }
-         return list;
+         return new ArrayList<>(Arrays.asList(value()));
       }
 
       @Override
       public Stream<Value<?>> stream() {
          return Arrays.stream(value());
       }
+
+      @Override
+      public boolean equals(final Object other) {
+         return this==other||other instanceof ArrayValue&&Arrays.equals(value(),((ArrayValue)other).value());
+      }
+
+      @Override
+      public int hashCode() {
+         return getClass().hashCode()*31+Arrays.hashCode(value());
+      }
+
+      @Override
+      public ArrayValue with(final int i,final Value<?> value) {
+         return new ArrayValue(Items.with(root,size,i,nullable(value)),Math.max(size,i+1));
+      }
+
+      @Override
+      public ArrayValue without(final int i) {
+         final Object[] without=Items.without(root,size,i);
+         return size==1?ARRAY:new ArrayValue(without,size-1);
+      }
+
+      @Override
+      public final ArrayValue set(final Value<?> value,final int... i) {
+         return with(i[0],i.length==1?value:get(i[0]).set(value,Arrays.copyOfRange(i,1,i.length)));
+      }
    }
 
    public static final class ObjectValue
          extends Value<Map<String,Value<?>>> {
-      private ObjectValue(final Map<String,Value<?>> value) {
-         super(new HashMap<>(value));
+      private ObjectValue(final Members value) {
+         super(value);
+      }
+
+      private Members members() {
+         return (Members)value();
       }
 
       @Override
@@ -300,5 +517,42 @@ public abstract class Value<TYPE> {
          final Value<?> value=get(key[0]);
          return key.length==1?value:value==null?null:value.get(Arrays.copyOfRange(key,1,key.length));
       }
+
+      @Override
+      public ObjectValue with(final String key,final Value<?> value) {
+         final Members with=members().with(key(key),nullable(value));
+         return with==value()?this:new ObjectValue(with);
+      }
+
+      @Override
+      public ObjectValue without(final String key) {
+         final Members without=members().without(key);
+         return without==value()?this:without.isEmpty()?OBJECT:new ObjectValue(without);
+      }
+
+      @Override
+      public final ObjectValue set(final Value<?> value,final String... key) {
+         if(key.length==1) {
+            return with(key[0],value);
+         }
+         final Value<?> member=get(key[0]);
+         return with(key[0],(member==null?OBJECT:member).set(value,Arrays.copyOfRange(key,1,key.length)));
+      }
+
+      @Override
+      public Value<?> merge(final Value<?> patch) {
+         if(!(patch instanceof ObjectValue)) {
+            return patch;
+         }
+         Members members=members(); // Only the patched members are touched
+         for(final Map.Entry<String,Value<?>> member:((ObjectValue)patch).value().entrySet()) {
+            if(member.getValue().isNull()) {
+               members=members.without(member.getKey());
+            } else {
+               members=members.with(member.getKey(),nullable(members.get(member.getKey())).merge(member.getValue()));
+            }
+         }
+         return members==value()?this:members.isEmpty()?OBJECT:new ObjectValue(members);
+      }
    }
 }
@@ -0,0 +1,67 @@
+package com.okaphone.yajp;
+
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link Scanner} using the Vector API, a whole vector register at a time.
+ * It works on the characters themselves, so its hits are exact.
+ * Only used when the jdk.incubator.vector module is present (i.e. run with --add-modules jdk.incubator.vector).
+ *
+ * © Copyright J.R. Marks 2023
+ */
+final class VectorScanner
+      extends Scanner {
+   private static final VectorSpecies<Short> SPECIES=ShortVector.SPECIES_PREFERRED;
+   private final char[] chars; // The window
+
+   VectorScanner(final int window) {
+      super(0);
+      chars=new char[window];
+   }
+
+   @Override
+   void image(final String input,final int from,final int to) {
+      input.getChars(from,to,chars,0);
+   }
+
+   @Override
+   int string(final int from,final int to) {
+      int i=from;
+      for(;i+SPECIES.length()<=to;i+=SPECIES.length()) {
+         final ShortVector vector=ShortVector.fromCharArray(SPECIES,chars,i);
+         final VectorMask<Short> found=vector.eq((short)'"').or(vector.eq((short)'\\')).or(vector.compare(VectorOperators.UNSIGNED_LT,(short)' '));
+         if(found.anyTrue()) {
+            return i+found.firstTrue();
+         }
+      }
+      for(;i<to;i++) {
+         final char c=chars[i];
+         if(c=='"'||c=='\\'||c<' ') {
+            return i;
+         }
+      }
+      return to;
+   }
+
+   @Override
+   int whitespace(final int from,final int to) {
+      int i=from;
+      for(;i+SPECIES.length()<=to;i+=SPECIES.length()) {
+         final ShortVector vector=ShortVector.fromCharArray(SPECIES,chars,i);
+         final VectorMask<Short> found=vector.eq((short)' ').or(vector.eq((short)'\n')).or(vector.eq((short)'\r')).or(vector.eq((short)'\t')).not();
+         if(found.anyTrue()) {
+            return i+found.firstTrue();
+         }
+      }
+      for(;i<to;i++) {
+         final char c=chars[i];
+         if(c!=' '&&c!='\n'&&c!='\r'&&c!='\t') {
+            return i;
+         }
+      }
+      return to;
+   }
+}
@@ -2,7 +2,21 @@ package com.okaphone.yajp;
 
 import com.okaphone.yajp.Extras.ArrayBuilder;
 import com.okaphone.yajp.Extras.ObjectBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
 import java.util.stream.Stream;
 import junit.framework.TestCase;
 
@@ -69,6 +83,13 @@ public class Tests
       assertEquals("aap\tnoot",Json.parse("\"aap\\tnoot\"").string());
       assertEquals("aap&noot",Json.parse("\"aap\\u0026noot\"").string());
       assertEquals("aap\u0003noot",Json.parse("\"aap\\u0003noot\"").string());
+      final Value<?> test=Json.parse("[\"aap\",\"noot\\\"mies\",\"wim\",\"\\\\\",\"zus\",\"jet\\\\\\\"\"]");
+      assertEquals("aap",test.get(0).string());
+      assertEquals("noot\"mies",test.get(1).string());
+      assertEquals("wim",test.get(2).string());
+      assertEquals("\\",test.get(3).string());
+      assertEquals("zus",test.get(4).string());
+      assertEquals("jet\\\"",test.get(5).string());
    }
 
    public void testArrayParser() {
@@ -143,4 +164,553 @@ public class Tests
       assertTrue(json3.contains("\"gijs\":\"3\""));
       assertTrue(json3.contains("\"mies\":true"));
    }
+
+   public void testWith() {
+      final Value<?> test=Json.parse("{\"aap\":1,\"noot\":{\"wim\":[2,3]},\"mies\":{\"zus\":4}}");
+      final Value<?> with=test.with("aap",Value.of(5)).without("mies");
+      assertEquals(1.0,test.get("aap").number(),0.0);
+      assertEquals(5.0,with.get("aap").number(),0.0);
+      assertNull(with.get("mies"));
+      assertSame(test.get("noot"),with.get("noot"));
+      assertSame(test,test.without("gijs"));
+      assertTrue(test.with("aap",null).get("aap").isNull());
+      final Value<?> set=test.set(Value.of("6"),"noot","wim").set(Value.of(true),"does","hok");
+      assertEquals("6",set.get("noot","wim").string());
+      assertTrue(set.get("does","hok").bool());
+      assertSame(test.get("mies"),set.get("mies"));
+      assertEquals(2,test.get("noot","wim").length());
+      final Value<?> array=Json.parse("[1,[2,3]]");
+      assertEquals(Json.parse("[1,[2,7]]"),array.set(Value.of(7),1,1));
+      assertEquals(Json.parse("[1,[2,3],8]"),array.with(2,Value.of(8)));
+      assertEquals(Json.parse("[[2,3]]"),array.without(0));
+      assertSame(array.get(1),array.with(0,Value.of()).get(1));
+      try {
+         array.with(3,Value.of());
+         fail();
+      } catch(final ArrayIndexOutOfBoundsException e) {
+      }
+      final Random random=new Random(3);
+      final String[] keys=new String[3000];
+      for(int i=0;i<keys.length;i++) {
+         keys[i]=(i%2==0?"Aa":"BB")+i/2; // Aa and BB have equal hash codes
+      }
+      Value<?> object=Json.parse("{\"x\":1}");
+      final Map<String,Value<?>> members=new HashMap<>(object.object());
+      Value<?> items=Json.parse("[0]");
+      final List<Value<?>> list=new ArrayList<>(items.list());
+      for(int n=0;n<20000;n++) {
+         final Value<?> value=Value.of(n);
+         final String key=keys[random.nextInt(keys.length)];
+         if(random.nextInt(3)==0) {
+            object=object.without(key);
+            members.remove(key);
+         } else {
+            object=object.with(key,value);
+            members.put(key,value);
+         }
+         if(random.nextInt(4)==0&&!list.isEmpty()) {
+            final int i=random.nextInt(10)==0?random.nextInt(list.size()):list.size()-1;
+            items=items.without(i);
+            list.remove(i);
+         } else {
+            final int i=random.nextBoolean()?list.size():random.nextInt(list.size()+1);
+            items=items.with(i,value);
+            if(i==list.size()) {
+               list.add(value);
+            } else {
+               list.set(i,value);
+            }
+         }
+         if(n%1000==0) {
+            assertEquals(members,object.object());
+            assertEquals(list,items.list());
+         }
+      }
+      assertEquals(members,object.object());
+      assertEquals(members.size(),object.keys().size());
+      for(final String key:keys) {
+         assertSame(members.get(key),object.get(key));
+      }
+      assertEquals(Value.of(members),object);
+      assertEquals(Value.of(members).hashCode(),object.hashCode());
+      assertEquals(list,items.list());
+      assertTrue(1024<list.size()); // Three levels
+      for(int i=0;i<list.size();i++) {
+         assertSame(list.get(i),items.get(i));
+      }
+      assertEquals(Value.of(list.toArray(new Value<?>[0])),items);
+      final Value<?> parsed=Json.parse(Canonical.toString(object));
+      assertEquals(object,parsed);
+      assertSame(parsed.get(keys[1]),parsed.with(keys[0],Value.of()).get(keys[1]));
+      assertEquals(Json.parse("{\"a\":2}"),Json.parse("{\"a\":1,\"a\":2}")); // The later of duplicate keys wins
+   }
+
+   public void testNulls() {
+      final Value<?> array=Value.of(new Value<?>[]{null,Value.of(1)});
+      assertTrue(array.get(0).isNull());
+      assertEquals(Json.parse("[null,1]"),array);
+      assertEquals("[null,1]",Canonical.toString(array));
+      final Map<String,Value<?>> members=new HashMap<>();
+      members.put("aap",null);
+      final Value<?> object=Value.of(members);
+      assertTrue(object.get("aap").isNull());
+      assertEquals(Json.parse("{\"aap\":null}"),object);
+      assertEquals(Json.parse("{}"),Value.of().merge(object));
+      assertEquals(object,Schema.compile("{\"properties\":{\"aap\":{\"type\":\"null\"}}}").validate(object));
+      assertNull(members.get("aap"));
+      assertTrue(Value.of((String)null).isNull());
+      assertEquals("[null,\"\"]",Canonical.toString(Value.of(Value.of((String)null),Value.of(""))));
+      members.put(null,Value.of(1));
+      try {
+         Value.of(members);
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+      try {
+         object.with(null,Value.of(1));
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+      assertSame(object,object.without(null));
+   }
+
+   public void testMerge() {
+      final Value<?> target=Json.parse("{\"a\":\"b\",\"c\":{\"d\":\"e\",\"f\":\"g\"},\"h\":[1]}");
+      final Value<?> patch=Json.parse("{\"a\":\"z\",\"c\":{\"f\":null},\"i\":{\"j\":null,\"k\":1}}");
+      final Value<?> merged=target.merge(patch);
+      assertEquals(Json.parse("{\"a\":\"z\",\"c\":{\"d\":\"e\"},\"h\":[1],\"i\":{\"k\":1}}"),merged);
+      assertSame(target.get("h"),merged.get("h"));
+      assertEquals(Json.parse("[1]"),target.merge(Json.parse("[1]")));
+      assertEquals(Json.parse("{\"a\":1}"),Json.parse("[2]").merge(Json.parse("{\"a\":1,\"b\":null}")));
+      assertTrue(target.merge(Json.parse("{\"a\":null,\"c\":null,\"h\":null}")).isEmpty());
+   }
+
+   public void testSchema() {
+      final Schema schema=Schema.compile("{\"type\":\"object\",\"required\":[\"aap\"],\"properties\":{"
+                                         +"\"aap\":{\"type\":\"integer\",\"minimum\":1,\"maximum\":3},"
+                                         +"\"noot\":{\"type\":\"array\",\"maxItems\":2,\"items\":{\"type\":\"string\",\"maxLength\":3,\"pattern\":\"^[a-z]+$\"}},"
+                                         +"\"mies\":{\"enum\":[\"wim\",null]},"
+                                         +"\"a/b\":{\"type\":[\"boolean\",\"null\"]}}}");
+      assertEquals(2,Json.parse("{\"aap\":2,\"noot\":[\"zus\"],\"mies\":null,\"jet\":{}}",schema).get("aap").integer());
+      assertEquals("/aap",violation(schema,"{\"aap\":2.5}"));
+      assertEquals("/aap",violation(schema,"{\"aap\":4}"));
+      assertEquals("/",violation(schema,"{\"noot\":[]}"));
+      assertEquals("/",violation(schema,"[]"));
+      assertEquals("/noot/1",violation(schema,"{\"aap\":1,\"noot\":[\"zus\",\"jet\\u0021\"]}"));
+      assertEquals("/noot/0",violation(schema,"{\"aap\":1,\"noot\":[\"hokje\"]}"));
+      assertEquals("/noot",violation(schema,"{\"aap\":1,\"noot\":[\"a\",\"b\",\"c\"]}"));
+      assertEquals("/mies",violation(schema,"{\"aap\":1,\"mies\":\"teun\"}"));
+      assertEquals("/a~1b",violation(schema,"{\"aap\":1,\"a/b\":0}"));
+      assertEquals(Json.parse("[1]"),Schema.ANY.validate(Json.parse("[1]")));
+      assertEquals(1,Json.parse("[1]",Schema.compile("{\"minLength\":3}")).length());
+      assertEquals("abc",Json.parse("\"abc\"",Schema.compile("{\"maxItems\":2}")).string());
+      final Schema lengths=Schema.compile("{\"minLength\":2,\"minItems\":1,\"maxLength\":3,\"maxItems\":4}");
+      assertEquals("/",violation(lengths,"\"a\""));
+      assertEquals("/",violation(lengths,"[]"));
+      assertEquals("/",violation(lengths,"\"abcd\""));
+      assertEquals(4,Json.parse("[1,2,3,4]",lengths).length());
+      assertEquals("/",violation(lengths,"[1,2,3,4,5,oops")); // Before the rest of the array is parsed
+      assertEquals("/0",violation(Schema.compile("{\"items\":{\"maxItems\":1}}"),"[[1,2],[3]]"));
+      assertEquals("/1/2",violation(Schema.compile("{\"items\":{\"items\":{\"type\":\"number\"}}}"),"[[],[1,2,\"3\"]]"));
+      assertEquals("/",violation(Schema.compile("false"),"1"));
+      assertEquals("/",violation(Schema.compile("false"),"{}"));
+      assertEquals("/",violation(Schema.compile("false"),"[]"));
+      assertEquals("/aap",violation(Schema.compile("{\"properties\":{\"aap\":false}}"),"{\"aap\":null}"));
+      assertEquals("/0",violation(Schema.compile("{\"items\":false}"),"[[]]"));
+      assertEquals(0,Json.parse("[]",Schema.compile("{\"items\":false}")).length());
+      for(final String invalid:new String[]{"{\"type\":1}","{\"type\":\"int\"}","{\"type\":[\"string\",null]}","{\"required\":\"a\"}","{\"required\":[1]}",
+                                            "{\"properties\":[]}","{\"properties\":{\"a\":1}}","{\"items\":\"a\"}","{\"enum\":1}","{\"minimum\":\"1\"}",
+                                            "{\"maxLength\":-1}","{\"minItems\":1.5}","{\"pattern\":\"(\"}","{\"pattern\":1}","1"}) {
+         try {
+            Schema.compile(invalid);
+            fail(invalid);
+         } catch(final IllegalArgumentException e) {
+            assertTrue(e.getMessage(),e.getMessage().startsWith("invalid schema"));
+         }
+      }
+      assertEquals("invalid schema keyword type: \"int\"",message(()->Schema.compile("{\"type\":\"int\"}")));
+      assertEquals("invalid schema keyword required: \"a\"",message(()->Schema.compile("{\"required\":\"a\"}")));
+      assertEquals(1,Json.parse("[1]",Schema.compile("{\"type\":[\"array\",\"integer\"],\"maxItems\":2.0,\"unknown\":1}")).length());
+      try {
+         Schema.NONE.validate(Json.parse("[]"));
+         fail();
+      } catch(final Schema.Violation e) {
+      }
+      try {
+         schema.validate(Json.parse("{\"aap\":1,\"noot\":[1]}"));
+         fail();
+      } catch(final Schema.Violation e) {
+         assertEquals("/noot/0",e.path());
+         assertTrue(e.getMessage().startsWith("schema violation at /noot/0"));
+      }
+   }
+
+   private static String message(final Runnable runnable) {
+      try {
+         runnable.run();
+      } catch(final RuntimeException e) {
+         return e.getMessage();
+      }
+      fail();
+      return null;
+   }
+
+   private static String violation(final Schema schema,final String json) {
+      try {
+         Json.parse(json,schema);
+      } catch(final Schema.Violation e) {
+         return e.path().isEmpty()?"/":e.path();
+      }
+      fail();
+      return null;
+   }
+
+   public void testTransformer() throws IOException {
+      final String json=" { \"aap\" : [ 1 , -2.5e+3 , { } , [ ] ] ,\n\"noot\":{\"wim\":\"zus\\\"\",\"jet\":[\"a\",true,null]},\"mi\\u0065s\":false } ";
+      assertEquals("{\"aap\":[1,-2.5e+3,{},[]],\"noot\":{\"wim\":\"zus\\\"\",\"jet\":[\"a\",true,null]},\"mi\\u0065s\":false}",new Transformer().transform(json));
+      assertEquals("{\n  \"aap\": [\n    1,\n    -2.5e+3,\n    {},\n    []\n  ],\n  \"noot\": {\n    \"wim\": \"zus\\\"\",\n    \"jet\": [\n      \"a\",\n"
+                   +"      true,\n      null\n    ]\n  },\n  \"mi\\u0065s\": false\n}",new Transformer().indent(2).transform(json));
+      assertEquals("{\"aap\":[1,{},[]],\"noot\":{\"jet\":[\"a\",true,null]}}",new Transformer().drop("mies").drop("aap","1").drop("*","wim").transform(json));
+      assertEquals("{\"aap\":[1,-2.5e+3,{},[]],\"noot\":{\"wim\":\"***\",\"jet\":[\"***\",true,null]},\"teun\":false}",
+                   new Transformer().redact("noot").rename("teun","mies").transform(json));
+      assertEquals("{\"x\":\"***\"}",new Transformer().rename("x","a").redact("a").transform("{\"a\":\"s\"}"));
+      assertEquals("{\"x\":\"***\"}",new Transformer().redact("a").rename("x","a").transform("{\"a\":\"s\"}"));
+      assertEquals("{}",new Transformer().rename("x","a").drop("a").redact("a").transform("{\"a\":\"s\"}"));
+      final ByteArrayOutputStream out=new ByteArrayOutputStream();
+      new Transformer().transform(new ByteArrayInputStream("[\"\u20ac\" ]".getBytes(StandardCharsets.UTF_8)),out);
+      assertEquals("[\"\u20ac\"]",new String(out.toByteArray(),StandardCharsets.UTF_8));
+      for(final String invalid:new String[]{"","[1,]","{\"aap\"}","[01]","[1.]","\"aap","[tru]","{} {}","[\"\\x\"]","[\"a\u0001b\"]"}) {
+         try {
+            new Transformer().transform(invalid);
+            fail(invalid);
+         } catch(final IllegalArgumentException e) {
+         }
+      }
+   }
+
+   public void testSyntax() {
+      for(final String invalid:new String[]{"","[1,]","{\"aap\":1,}","{\"aap\"}","{aap:1}","[01]","[1.]","[-]","\"aap","\"a\\x\"","\"\\u12\"","[tru]","{} {}","[1 2]","\"a\u0001b\"","[\"\\n\t\"]","{\"a\u001fb\":1}"}) {
+         try {
+            Json.parse(invalid);
+            fail(invalid);
+         } catch(final Json.SyntaxException e) {
+            assertTrue(e.getMessage().startsWith("syntax error at line 1"));
+         }
+      }
+      final String text=new String(new char[40000]).replace('\0','\u0101'); // Beyond the first window, with the low byte of a control character
+      for(final String invalid:new String[]{"[\"\u0101\u0101\u0101\u0101\u0101\u0101\u0101\u0101\u0101\u0101\u0001\"]","[\""+text+"\u001f\"]","[\""+text.substring(0,16380)+"\\n\u0000\"]"}) {
+         try {
+            Json.parse(invalid);
+            fail(invalid);
+         } catch(final Json.SyntaxException e) {
+            assertEquals("unescaped control character",e.expected());
+            assertEquals(invalid.length()-3,e.offset());
+         }
+      }
+      final StringBuilder json=new StringBuilder("{\n  \"aap\": [1,\n    2 3]");
+      for(int i=0;i<100000;i++) {
+         json.append(",\"noot\":[1,2,3]");
+      }
+      try {
+         Json.parse(json.append('}').toString());
+         fail();
+      } catch(final Json.SyntaxException e) {
+         assertEquals(21,e.offset());
+         assertEquals(3,e.line());
+         assertEquals(7,e.column());
+         assertEquals("expected ',' or ']'",e.expected());
+         assertEquals("\n  \"aap\": [1,\n    2 3],\"noot\":[1,2,3],\"n",e.context());
+         assertTrue(e.getMessage().length()<200);
+      }
+      try {
+         new Transformer().transform("[\n1,\n2 3]");
+         fail();
+      } catch(final Json.SyntaxException e) {
+         assertEquals(7,e.offset());
+         assertEquals(3,e.line());
+         assertEquals(3,e.column());
+      }
+   }
+
+   public void testNumbers() {
+      assertEquals("0",Numbers.toString(0.0));
+      assertEquals("0",Numbers.toString(-0.0));
+      assertEquals("0.1",Numbers.toString(0.1));
+      assertEquals("-1.5",Numbers.toString(-1.5));
+      assertEquals("10000000000",Numbers.toString(1e10));
+      assertEquals("100000000000000000000",Numbers.toString(1e20));
+      assertEquals("1e+21",Numbers.toString(1e21));
+      assertEquals("1e+23",Numbers.toString(1e23));
+      assertEquals("0.000001",Numbers.toString(1e-6));
+      assertEquals("1e-7",Numbers.toString(1e-7));
+      assertEquals("1.7976931348623157e+308",Numbers.toString(Double.MAX_VALUE));
+      assertEquals("5e-324",Numbers.toString(Double.MIN_VALUE));
+      assertEquals("[-9223372036854775808,255,-3,100]",new ArrayBuilder(Long.MIN_VALUE,(short)255,(byte)-3,100).build());
+      assertEquals("9007199254740992",Numbers.toString(9007199254740992.0));
+      assertEquals("0.1",Numbers.toString(0.1f));
+      assertEquals("3.4028235e+38",Numbers.toString(Float.MAX_VALUE));
+      assertEquals("1e-45",Numbers.toString(Float.MIN_VALUE));
+      final Random random=new Random(42);
+      for(int i=0;i<100000;i++) {
+         final double value=Double.longBitsToDouble(random.nextLong());
+         if(Double.isFinite(value)) {
+            assertEquals(value,Double.parseDouble(Numbers.toString(value)));
+         }
+      }
+      final byte[] buffer=new byte[Numbers.MAX_LENGTH];
+      for(final long value:new long[]{0,7,-42,1234567890123L,Long.MAX_VALUE,Long.MIN_VALUE}) {
+         assertEquals(Long.toString(value),new String(buffer,0,Numbers.write(value,buffer,0),StandardCharsets.US_ASCII));
+      }
+      final long[] values=new long[100000];
+      for(int i=0;i<values.length;i++) {
+         values[i]=random.nextLong()>>random.nextInt(64);
+      }
+      final byte[] out=new byte[values.length*Numbers.MAX_LENGTH];
+      long numbers=Long.MAX_VALUE;
+      long jdk=Long.MAX_VALUE;
+      for(int n=0;n<20;n++) { // The best of a number of runs, after warming up
+         long start=System.nanoTime();
+         int length=0;
+         for(final long value:values) {
+            length=Numbers.write(value,out,length);
+         }
+         numbers=Math.min(numbers,System.nanoTime()-start);
+         start=System.nanoTime();
+         length=0;
+         for(final long value:values) {
+            final byte[] digits=Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+            System.arraycopy(digits,0,out,length,digits.length);
+            length+=digits.length;
+         }
+         jdk=Math.min(jdk,System.nanoTime()-start);
+      }
+      assertTrue("Numbers.write "+numbers+"ns, JDK "+jdk+"ns",numbers<jdk*3/2); // Normally faster, with a margin for noisy machines
+      try {
+         Numbers.toString(Double.NaN);
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+      assertEquals("[10000000000,0.5,1e-7,2.5,null,-3]",new ArrayBuilder(1e10,0.5,1e-7,2.5f,Double.POSITIVE_INFINITY,-3L).build());
+   }
+
+   public void testScanner() {
+      final Random random=new Random(7);
+      final char[] alphabet={'a',' ','\t','\n','\r','"','\\','\u0001','\u001f','\u00e9','\u0122','\u0120','\u015c','\u20ac','\uffff'};
+      for(final Scanner scanner:new Scanner[]{new Scanner(100),Scanner.create(100)}) {
+         for(int n=0;n<2000;n++) {
+            final char[] chars=new char[random.nextInt(100)];
+            for(int i=0;i<chars.length;i++) {
+               chars[i]=random.nextInt(4)==0?alphabet[random.nextInt(alphabet.length)]:alphabet[random.nextInt(5)];
+            }
+            final String input="xyz"+new String(chars);
+            scanner.image(input,3,input.length());
+            final int from=random.nextInt(chars.length+1);
+            int string=from;
+            while(string<chars.length&&chars[string]!='"'&&chars[string]!='\\'&&chars[string]>=' ') {
+               string++;
+            }
+            int whitespace=from;
+            while(whitespace<chars.length&&" \t\n\r".indexOf(chars[whitespace])>=0) {
+               whitespace++;
+            }
+            final int found=scanner.string(from,chars.length);
+            assertTrue(input,found<=string); // Hits may be beyond U+00FF, with the low byte of a special character
+            assertTrue(input,found==string||"\"\\".indexOf(chars[found]&0xff)>=0||(chars[found]&0xff)<' ');
+            assertEquals(input,whitespace,scanner.whitespace(from,chars.length));
+         }
+      }
+      final StringBuilder json=new StringBuilder("[");
+      for(int i=0;i<5000;i++) {
+         json.append(i==0?"":",").append(new String(new char[i%40]).replace('\0',' ')).append("\"").append(new String(new char[i%97]).replace('\0','\u0122')).append(i%7==0?"\\\"":"").append('"');
+      }
+      final Value<?> parsed=Json.parse(json.append("]").toString());
+      assertEquals(5000,parsed.length());
+      assertEquals(new String(new char[96]).replace('\0','\u0122'),parsed.get(4073).string());
+      assertEquals(new String(new char[71]).replace('\0','\u0122')+"\"",parsed.get(4921).string());
+      for(final String invalid:new String[]{"[1,\u0120 2]","[\u0120]","[1,                  \u010d]","\"\u0122"}) {
+         try {
+            Json.parse(invalid);
+            fail(invalid);
+         } catch(final Json.SyntaxException e) {
+         }
+      }
+   }
+
+   public void testJsonParser() {
+      final JsonParser parser=new JsonParser();
+      assertEquals(Json.parse("[1,[2,[3,4],5],{\"aap\":[6]},7]"),parser.parse("[1,[2,[3,4],5],{\"aap\":[6]},7]"));
+      try {
+         parser.parse("[1,[2,[3,");
+         fail();
+      } catch(final Json.SyntaxException e) {
+      }
+      final StringBuilder json=new StringBuilder("[");
+      for(int i=0;i<100000;i++) {
+         json.append(i).append(',');
+      }
+      final Value<?> test=parser.parse(json.append("1e400,0.1,-0.5e-3,123456789012345678901234567890]").toString());
+      assertEquals(100004,test.length());
+      assertEquals(99999,test.get(99999).integer());
+      assertEquals(Double.POSITIVE_INFINITY,test.get(100000).number(),0.0);
+      assertEquals(0.1,test.get(100001).number(),0.0);
+      assertEquals(-0.5e-3,test.get(100002).number(),0.0);
+      assertEquals(123456789012345678901234567890.0,test.get(100003).number(),0.0);
+      assertEquals("aap\"noot",parser.parse("{\"a\\\"p\":\"aap\\\"noot\"}").get("a\"p").string());
+   }
+
+   public void testSlices() throws IOException {
+      final byte[] blob=new byte[100000];
+      new Random(7).nextBytes(blob);
+      final String base64=Base64.getEncoder().encodeToString(blob);
+      final String json="{\"aap\":\""+base64+"\",\"noot\":\""+base64.replace("/","\\/")+"\",\"mies\":\"wim\"}";
+      final Value<?> test=new JsonParser().slices(16).parse(json);
+      assertEquals(base64.length(),test.get("aap").length());
+      assertEquals(base64.charAt(1234),test.get("aap").chars().charAt(1234));
+      assertEquals(base64.substring(10,20),test.get("aap").chars().subSequence(10,20).toString());
+      assertEquals("wim",test.get("mies").chars());
+      for(final String key:new String[]{"aap","noot"}) {
+         final ByteArrayOutputStream out=new ByteArrayOutputStream();
+         assertEquals(blob.length,test.get(key).base64(out));
+         assertTrue(Arrays.equals(blob,out.toByteArray()));
+      }
+      final StringBuilder read=new StringBuilder();
+      final Reader reader=test.get("noot").reader();
+      final char[] buffer=new char[1000];
+      for(int length=reader.read(buffer);0<=length;length=reader.read(buffer)) {
+         read.append(buffer,0,length);
+      }
+      assertEquals(base64,read.toString());
+      assertEquals(base64,test.get("noot").string());
+      assertEquals(Json.parse(json),test);
+      try {
+         new JsonParser().slices(1).parse("[\"aap\\x\"]");
+         fail();
+      } catch(final Json.SyntaxException e) {
+      }
+      final ByteArrayOutputStream out=new ByteArrayOutputStream();
+      assertEquals(2,Json.parse("\"_-8\"").base64(out));
+      assertEquals(0xff,out.toByteArray()[0]&0xff);
+      try {
+         Json.parse("\"QQ=\"").base64(out);
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+   }
+
+   public void testCanonical() throws NoSuchAlgorithmException {
+      final String json="{\n  \"numbers\": [333333333.33333329, 1E30, 4.50, 2e-3, 0.000000000000000000000000001],\n"
+                        +"  \"string\": \"\\u20ac$\\u000F\\u000aA'\\u0042\\u0022\\u005c\\\\\\\"\\/\",\n"
+                        +"  \"literals\": [null, true, false]\n}";
+      final String canonical="{\"literals\":[null,true,false],\"numbers\":[333333333.3333333,1e+30,4.5,0.002,1e-27],"
+                             +"\"string\":\"\u20ac$\\u000f\\nA'B\\\"\\\\\\\\\\\"/\"}";
+      assertEquals(canonical,Canonical.toString(Json.parse(json)));
+      assertEquals("{\"\\r\":0,\"1\":0,\"\u0080\":0,\"\u00f6\":0,\"\u20ac\":0,\"\ud83d\ude00\":0,\"\ufb33\":0}",
+                   Canonical.toString(Json.parse("{\"\\u20ac\":0,\"\\r\":0,\"\\ufb33\":0,\"1\":0,\"\\ud83d\\ude00\":0,\"\\u0080\":0,\"\\u00f6\":0}")));
+      final MessageDigest digest=MessageDigest.getInstance("SHA-256");
+      assertTrue(Arrays.equals(digest.digest(canonical.getBytes(StandardCharsets.UTF_8)),Canonical.digest(json,digest)));
+      try {
+         Canonical.toString(Json.parse("\"\\ud83d\""));
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+   }
+
+   public void testColumns() throws IOException {
+      final StringBuilder json=new StringBuilder("[");
+      for(int i=0;i<10;i++) {
+         json.append(i==0?"":",").append("{\"id\":").append(i).append(",\"price\":").append(i==3?"null":i+".5")
+               .append(",\"ok\":").append(i%2==0).append(",\"extra\":{\"a\":[1,\"2\"]},\"kind\":\"").append(i%3==0?"a\\u0062":"c").append("\"}");
+      }
+      final String data=json.append(",{\"kind\":null,\"id\":9007199254740993}]").toString();
+      final List<Integer> sizes=new ArrayList<>();
+      final long[] ids=new long[11];
+      final Columns columns=new Columns().integer("id").number("price").bool("ok").string("kind").batch(4);
+      columns.read(new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8)),(batch)->{
+         final int first=sizes.stream().mapToInt(Integer::intValue).sum();
+         sizes.add(batch.size());
+         System.arraycopy(batch.integers("id"),0,ids,first,batch.size());
+         if(first==0) {
+            assertEquals(0.5,batch.numbers("price")[0],0.0);
+            assertEquals(2.5,batch.numbers("price")[2],0.0);
+            assertTrue(batch.nulls("price").get(3));
+            assertFalse(batch.nulls("price").get(2));
+            assertTrue(batch.bools("ok")[0]);
+            assertFalse(batch.bools("ok")[1]);
+            assertEquals(Arrays.asList("ab","c"),batch.dictionary("kind"));
+            assertEquals(0,batch.codes("kind")[0]);
+            assertEquals(1,batch.codes("kind")[1]);
+            assertEquals(0,batch.codes("kind")[3]);
+         }
+         if(first==8) {
+            assertTrue(batch.nulls("price").get(2));
+            assertTrue(batch.nulls("ok").get(2));
+            assertTrue(batch.nulls("kind").get(2));
+            assertFalse(batch.nulls("id").get(2));
+         }
+      });
+      assertEquals(Arrays.asList(4,4,3),sizes);
+      assertEquals(6,ids[6]);
+      assertEquals(9007199254740993L,ids[10]);
+      try {
+         new Columns().batch(0);
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+      try {
+         new Columns().string("id").read("[{\"id\":1}]",(batch)->{
+         });
+         fail();
+      } catch(final IllegalArgumentException e) {
+         assertEquals("expected a string for id in row 0",e.getMessage());
+      }
+      try {
+         new Columns().read("[{\"id\":1},]",(batch)->{
+         });
+         fail();
+      } catch(final Json.SyntaxException e) {
+      }      try {
+         new Columns().integer("id").number("id");
+         fail();
+      } catch(final IllegalArgumentException e) {
+         assertEquals("duplicate column: id",e.getMessage());
+      }
+      final long[] integers=new long[6];
+      new Columns().integer("id").read("[{\"id\":9223372036854775807},{\"id\":-9223372036854775808},{\"id\":1e3},{\"id\":-2.0},{\"id\":123456789012345678},{\"id\":-0}]",
+                                       (batch)->System.arraycopy(batch.integers("id"),0,integers,0,batch.size()));
+      assertTrue(Arrays.equals(new long[]{Long.MAX_VALUE,Long.MIN_VALUE,1000,-2,123456789012345678L,0},integers));
+      for(final String invalid:new String[]{"1.5","-0.1","9223372036854775808","-9223372036854775809","1e19","12345678901234567890"}) {
+         try {
+            new Columns().integer("id").read("[{\"id\":0},{\"id\":"+invalid+"}]",(batch)->{
+            });
+            fail(invalid);
+         } catch(final IllegalArgumentException e) {
+            assertEquals("expected an integer for id in row 1",e.getMessage());
+         }
+      }
+   }
+
+   public void testTemplate() throws IOException {
+      final Extras.ObjectBuilder shape=new Extras.ObjectBuilder();
+      shape.put("type","click\n");
+      shape.put("x",Template.slot(0));
+      shape.put("at",new Extras.ArrayBuilder(Template.slot(1),Template.slot(0),true));
+      final Template template=Template.compile(shape);
+      final Template.Buffer buffer=new Template.Buffer(4);
+      final Object[][] values={{1,2.5},{"\"\u00e9\u20ac\ud83d\ude00\u0001",null},{Double.NaN,-0.0f},{new Extras.ArrayBuilder(1L,"a"),false}};
+      for(final Object[] value:values) {
+         shape.put("x",value[0]);
+         shape.put("at",new Extras.ArrayBuilder(value[1],value[0],true));
+         final String expected=shape.build();
+         assertEquals(expected,template.render(buffer,value).toString());
+         final ByteArrayOutputStream out=new ByteArrayOutputStream();
+         buffer.writeTo(out);
+         assertTrue(Arrays.equals(expected.getBytes(StandardCharsets.UTF_8),out.toByteArray()));
+      }
+      assertEquals("[1,\"a\",1]",Template.compile(new Extras.ArrayBuilder(Template.slot(0),"a",Template.slot(0))).toString(1));
+      try {
+         template.render(buffer,1);
+         fail();
+      } catch(final IllegalArgumentException e) {
+      }
+   }
 }